@@ -18,51 +18,99 @@ package com.palantir.gradle.graal;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
-import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.logging.LogLevel;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
-import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.OutputFile;
-import org.gradle.process.ExecSpec;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.workers.WorkerExecutor;
 
 public abstract class BaseGraalCompileTask extends DefaultTask {
+    // only the builder JVM's own collector; --gc= picks the one compiled into the image, which is independent of it
+    private static final Pattern USER_GARBAGE_COLLECTOR = Pattern.compile("-J-XX:\\+Use\\w+GC");
+
     private final Property<String> outputName = getProject().getObjects().property(String.class);
     private final ListProperty<String> options = getProject().getObjects().listProperty(String.class);
+    private final DirectoryProperty outputDirectory = getProject().getObjects().directoryProperty();
     private final RegularFileProperty outputFile = getProject().getObjects().fileProperty();
+    private final DirectoryProperty reportsDirectory = getProject().getObjects().directoryProperty();
     private final Property<String> graalVersion = getProject().getObjects().property(String.class);
     private final Property<String> javaVersion = getProject().getObjects().property(String.class);
     private final Property<String> windowsVsVarsPath = getProject().getObjects().property(String.class);
-    private final Property<Configuration> classpath = getProject().getObjects().property(Configuration.class);
+    private final ConfigurableFileCollection classpath = getProject().files();
     private final RegularFileProperty jarFile = getProject().getObjects().fileProperty();
+    private final DirectoryProperty prunedClasspath = getProject().getObjects().directoryProperty();
+    private final Property<ClasspathFingerprints> classpathFingerprints =
+            getProject().getObjects().property(ClasspathFingerprints.class);
+    private final Provider<String> classpathKey = classpathFingerprints.map(fingerprints -> {
+        if (prunedClasspath.isPresent()) {
+            return null;
+        }
+        try {
+            List<File> files = new ArrayList<>(classpath.getFiles());
+            files.add(jarFile.getAsFile().get());
+            return fingerprints.key(files);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    });
     private final Property<Path> cacheDir = getProject().getObjects().property(Path.class);
     private final Property<String> graalDirectoryName =
             getProject().getObjects().property(String.class);
+    private final Property<GraalResourceBudget> resourceBudget =
+            getProject().getObjects().property(GraalResourceBudget.class);
+    private final Property<Long> memoryMegabytes = getProject().getObjects().property(Long.class);
+    private final Property<Integer> parallelism = getProject().getObjects().property(Integer.class);
+    private final Property<String> garbageCollector = getProject().getObjects().property(String.class);
+    private final Property<String> optimizationLevel = getProject().getObjects().property(String.class);
+    private final Property<Boolean> debugInfo = getProject().getObjects().property(Boolean.class);
+    private final ListProperty<String> profileOptions = getProject().getObjects().listProperty(String.class);
+    private final ConfigurableFileCollection configurationDirectories = getProject().files();
+    private final Property<String> distributionChecksum = getProject().getObjects().property(String.class);
+    private final Property<Boolean> buildServer = getProject().getObjects().property(Boolean.class);
+    private final Property<GraalBuildServers> buildServers =
+            getProject().getObjects().property(GraalBuildServers.class);
+    private final File projectDirectory = getProject().getProjectDir();
 
     public BaseGraalCompileTask() {
         setGroup(GradleGraalPlugin.TASK_GROUP);
-        this.outputFile.set(getProject()
-                .getLayout()
-                .getBuildDirectory()
-                .dir("graal")
-                .map(d -> d.file(outputName.get() + getArchitectureSpecifiedOutputExtension())));
+        this.outputDirectory.set(getProject().getLayout().getBuildDirectory().dir("graal"));
+        this.outputFile.set(
+                outputDirectory.map(d -> d.file(outputName.get() + getArchitectureSpecifiedOutputExtension())));
+        this.debugInfo.set(false);
+        this.buildServer.set(false);
+        this.reportsDirectory.set(
+                getProject().getLayout().getBuildDirectory().dir("graal/reports/" + getName()));
     }
 
     @Input
@@ -74,13 +122,57 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         return directory;
     }
 
-    @Input
+    /**
+     * Returns the absolute path of {@code native-image}. This is not an input, so that outputs can be shared through
+     * the build cache between machines that install GraalVM in different places; the GraalVM version, Java version
+     * and {@link #getDistributionChecksum() distribution checksum} identify the tool instead.
+     */
+    @Internal
     protected final String getExecutable() {
-        return cacheDir.get()
-                .resolve(Paths.get(graalVersion.get(), javaVersion.get(), graalDirectoryName.get()))
-                .resolve(getArchitectureSpecifiedBinaryPath())
-                .toFile()
-                .getAbsolutePath();
+        // every resolution counts as a use, so versions that are still being built with survive cache eviction
+        GraalCacheCleaner.recordUse(cacheDir.get(), graalVersion.get(), javaVersion.get(), getLogger());
+        return getGraalHome().resolve(getArchitectureSpecifiedBinaryPath()).toFile().getAbsolutePath();
+    }
+
+    private Path getGraalHome() {
+        return cacheDir.get().resolve(Paths.get(graalVersion.get(), javaVersion.get(), graalDirectoryName.get()));
+    }
+
+    /**
+     * Returns the service that runs work items, injected by Gradle.
+     */
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Runs native-image with {@code args} as a work item, once the build's {@link GraalResourceBudget} has room for it,
+     * and while holding the GraalVM installation against eviction.
+     */
+    protected final void compile(List<String> args, String outputDescription) {
+        String executable = getExecutable();
+        List<String> commandLine = platformCommandLine(executable, args);
+        Optional<String> buildServerSession = buildServerSession();
+        File output = getOutputFile().get().getAsFile();
+        long reservedMemory = userMemoryMegabytes().orElseGet(memoryMegabytes::get);
+        int reservedParallelism = userParallelism().orElseGet(parallelism::get);
+        getWorkerExecutor().noIsolation().submit(GraalCompileAction.class, params -> {
+            params.getCommandLine().set(commandLine);
+            params.getLockFile()
+                    .set(GraalCacheLock.lockFile(cacheDir.get(), graalVersion.get(), javaVersion.get())
+                            .toFile());
+            params.getOutputFile().set(output);
+            params.getCompletionMessage()
+                    .set(outputDescription + " available at " + projectDirectory.toPath().relativize(output.toPath()));
+            params.getResourceBudget().set(resourceBudget);
+            params.getMemoryMegabytes().set(reservedMemory);
+            params.getParallelism().set(reservedParallelism);
+            params.getReportsDirectory().set(reportsDirectory);
+            buildServerSession.ifPresent(session -> {
+                params.getBuildServerSession().set(session);
+                params.getBuildServerExecutable().set(executable);
+                params.getBuildServers().set(buildServers);
+            });
+        });
     }
 
     /**
@@ -89,13 +181,28 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
      * @throws IOException If any problem while creating output directory
      */
     protected final void configureArgs(List<String> args) throws IOException {
+        Optional<String> buildServerSession = buildServerSession();
+        if (buildServerSession.isPresent()) {
+            args.add("--experimental-build-server");
+            args.add("--server-session=" + buildServerSession.get());
+        } else if (buildServer.get()) {
+            getLogger().warn("GraalVM {} has no build server, building in a process of its own", graalVersion.get());
+        }
         args.add("-cp");
         args.add(generateClasspathArgument());
         args.add("-H:Path=" + maybeCreateOutputDirectory().getAbsolutePath());
+        configureBuilderArgs(args);
+        if (!configurationDirectories.isEmpty()) {
+            args.add("-H:ConfigurationFileDirectories=" + configurationDirectories.getFiles().stream()
+                    .map(File::getAbsolutePath)
+                    .collect(Collectors.joining(",")));
+        }
+        configureProfileArgs(args);
         if (options.isPresent()) {
             List<String> optionList = options.get();
             args.addAll(optionList);
         }
+        args.addAll(profileOptions.getOrElse(Collections.emptyList()));
         // Set H:Name after all other options in order to override other H:Name
         // options that were expanded from macro options above. See
         // https://github.com/oracle/graal/issues/1032
@@ -104,17 +211,162 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         }
     }
 
-    protected final String generateClasspathArgument() {
+    protected final String generateClasspathArgument() throws IOException {
         Set<File> classpathArgument = new LinkedHashSet<>();
 
-        classpathArgument.addAll(classpath.get().getFiles());
-        classpathArgument.add(jarFile.getAsFile().get());
+        if (prunedClasspath.isPresent()) {
+            File directory = prunedClasspath.get().getAsFile();
+            for (String jar : Files.readAllLines(
+                    directory.toPath().resolve(ClasspathPruner.CLASSPATH_FILE), StandardCharsets.UTF_8)) {
+                classpathArgument.add(new File(directory, jar));
+            }
+        } else {
+            classpathArgument.addAll(classpath.getFiles());
+            classpathArgument.add(jarFile.getAsFile().get());
+        }
 
         return classpathArgument.stream()
                 .map(File::getAbsolutePath)
                 .collect(Collectors.joining(getArchitectureSpecifiedPathSeparator()));
     }
 
+    /** Returns the build server session to build on, if build servers are enabled and this GraalVM has them. */
+    private Optional<String> buildServerSession() {
+        if (!buildServer.get() || !GraalBuildServers.isSupported(graalVersion.get())) {
+            return Optional.empty();
+        }
+        return Optional.of(GraalBuildServers.session(graalVersion.get(), javaVersion.get()));
+    }
+
+    /** Sizes the native-image builder JVM to its share of the resource budget, unless the options already do. */
+    private void configureBuilderArgs(List<String> args) {
+        if (!userMemoryMegabytes().isPresent()) {
+            args.add("-J-Xmx" + memoryMegabytes.get() + "m");
+        }
+        if (!userParallelism().isPresent()) {
+            args.add(GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion.get(), 23, 0)
+                    ? "--parallelism=" + parallelism.get()
+                    : "-H:NumberOfThreads=" + parallelism.get());
+        }
+        boolean userGarbageCollector = userOptions().stream()
+                .anyMatch(option -> USER_GARBAGE_COLLECTOR.matcher(option).matches());
+        if (!userGarbageCollector) {
+            garbageCollectorOption(garbageCollector.get()).ifPresent(args::add);
+        }
+        getLogger()
+                .info(
+                        "Sizing native-image for {} MB heap and {} threads ({} MB and {} processors available)",
+                        userMemoryMegabytes().orElseGet(memoryMegabytes::get),
+                        userParallelism().orElseGet(parallelism::get),
+                        HostResources.memoryMegabytes(),
+                        HostResources.processors());
+    }
+
+    /** Translates the optimization level and debug information of a profile into options this GraalVM knows. */
+    private void configureProfileArgs(List<String> args) {
+        boolean optimizationLevels = GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion.get(), 22, 2);
+        if (optimizationLevel.isPresent()) {
+            if (optimizationLevels) {
+                args.add("-O" + optimizationLevel.get());
+            } else {
+                // before -O, there was no quick build mode, and no level above aggressive
+                switch (optimizationLevel.get()) {
+                    case "b":
+                    case "0":
+                        args.add("-H:Optimize=0");
+                        break;
+                    case "1":
+                        args.add("-H:Optimize=1");
+                        break;
+                    default:
+                        args.add("-H:Optimize=2");
+                        break;
+                }
+            }
+        }
+        if (debugInfo.get()) {
+            args.add("-g");
+            // from GraalVM 23, debug information is moved into a separate file unless told otherwise
+            if (GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion.get(), 23, 0)) {
+                args.add("-H:-StripDebugInfo");
+            }
+        }
+    }
+
+    private static Optional<String> garbageCollectorOption(String garbageCollector) {
+        switch (garbageCollector) {
+            case "serial":
+                return Optional.of("-J-XX:+UseSerialGC");
+            case "parallel":
+                return Optional.of("-J-XX:+UseParallelGC");
+            case "g1":
+                return Optional.of("-J-XX:+UseG1GC");
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private Optional<Long> userMemoryMegabytes() {
+        return userOption("-J-Xmx", BaseGraalCompileTask::parseMegabytes);
+    }
+
+    private Optional<Integer> userParallelism() {
+        Optional<Integer> value = userOption("--parallelism=", Integer::parseInt);
+        return value.isPresent() ? value : userOption("-H:NumberOfThreads=", Integer::parseInt);
+    }
+
+    /**
+     * Returns the value of the last option starting with {@code prefix}, as native-image lets later options win, parsed
+     * by {@code parser}.
+     */
+    private <T> Optional<T> userOption(String prefix, Function<String, T> parser) {
+        String value = null;
+        for (String option : userOptions()) {
+            if (option.startsWith(prefix)) {
+                value = option.substring(prefix.length());
+            }
+        }
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(parser.apply(value));
+        } catch (NumberFormatException e) {
+            throw new GradleException("Cannot parse the native-image option " + prefix + value, e);
+        }
+    }
+
+    /** Returns the options given by the user and by the build profile, in the order they are passed to native-image. */
+    private List<String> userOptions() {
+        List<String> userOptions = new ArrayList<>(options.getOrElse(Collections.emptyList()));
+        userOptions.addAll(profileOptions.getOrElse(Collections.emptyList()));
+        return userOptions;
+    }
+
+    /** Parses a JVM memory size such as {@code 512m} or {@code 8g}. */
+    static long parseMegabytes(String size) {
+        if (size.isEmpty()) {
+            throw new NumberFormatException("No size given");
+        }
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        long value = Long.parseLong(Character.isDigit(unit) ? size : size.substring(0, size.length() - 1));
+        switch (unit) {
+            case 'k':
+                return value / 1024;
+            case 'm':
+                return value;
+            case 'g':
+                return value * 1024;
+            case 't':
+                return value * 1024 * 1024;
+            default:
+                if (!Character.isDigit(unit)) {
+                    throw new NumberFormatException("Unknown size unit " + unit);
+                }
+                return value / (1024 * 1024);
+        }
+    }
+
     private Path getArchitectureSpecifiedBinaryPath() {
         switch (Platform.operatingSystem()) {
             case MAC:
@@ -140,7 +392,9 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         }
     }
 
-    protected final void configurePlatformSpecifics(ExecSpec spec) {
+    /** Returns the command line that runs {@code executable} with {@code args} on this platform. */
+    protected final List<String> platformCommandLine(String executable, List<String> args) {
+        List<String> commandLine = new ArrayList<>();
         if (Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS) {
             // on Windows the native-image executable needs to be launched from the Windows SDK Command Prompt
             // this is mentioned at https://github.com/oracle/graal/tree/master/substratevm#quick-start
@@ -158,15 +412,14 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
             }
 
             String argsString =
-                    spec.getArgs().stream().map(s -> "\"" + s + "\"").collect(Collectors.joining(" ", " ", "\r\n"));
+                    args.stream().map(s -> "\"" + s + "\"").collect(Collectors.joining(" ", " ", "\r\n"));
             String command = "call \"" + windowsVsVarsPath.get() + "\"";
             String cmdContent = "@echo off\r\n"
                     + command
                     + outputRedirection + "\r\n"
-                    + "\"" + spec.getExecutable() + "\"" + argsString;
-            Path buildPath = getProject().getBuildDir().toPath();
-            Path startCmd =
-                    buildPath.resolve("tmp").resolve("com.palantir.graal").resolve("native-image.cmd");
+                    + "\"" + executable + "\"" + argsString;
+            // one file per task, as compile tasks may run at the same time
+            Path startCmd = getTemporaryDir().toPath().resolve("native-image.cmd");
             try {
                 if (!Files.exists(startCmd.getParent())) {
                     Files.createDirectories(startCmd.getParent());
@@ -176,16 +429,18 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
                 throw new RuntimeException(e);
             }
 
-            List<String> cmdArgs = new ArrayList<>();
+            commandLine.add("cmd.exe");
             // command extensions
-            cmdArgs.add("/E:ON");
+            commandLine.add("/E:ON");
             // delayed environment variable expansion via !
-            cmdArgs.add("/V:ON");
-            cmdArgs.add("/c");
-            cmdArgs.add("\"" + startCmd.toString() + "\"");
-            spec.setExecutable("cmd.exe");
-            spec.setArgs(cmdArgs);
+            commandLine.add("/V:ON");
+            commandLine.add("/c");
+            commandLine.add("\"" + startCmd.toString() + "\"");
+        } else {
+            commandLine.add(executable);
+            commandLine.addAll(args);
         }
+        return commandLine;
     }
 
     protected static long fileSizeMegabytes(RegularFile regularFile) {
@@ -219,7 +474,11 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         javaVersion.set(provider);
     }
 
-    @Input
+    /**
+     * Returns the Visual Studio environment script used on Windows. Not an input, as it only locates the local Visual
+     * Studio installation, so outputs can be shared between machines that install it in different places.
+     */
+    @Internal
     public final Provider<String> getWindowsVsVarsPath() {
         return windowsVsVarsPath;
     }
@@ -228,17 +487,20 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         windowsVsVarsPath.set(provider);
     }
 
-    @InputFiles
-    @Classpath
-    public final Provider<Configuration> getClasspath() {
+    /** Returns the runtime classpath, which is tracked through {@link #getClasspathKey()} rather than by Gradle. */
+    @Internal
+    public final FileCollection getClasspath() {
         return classpath;
     }
 
-    public final void setClasspath(Provider<Configuration> provider) {
-        classpath.set(provider);
+    public final void setClasspath(FileCollection files) {
+        classpath.setFrom(files);
+        // no longer an input file collection, whose dependencies Gradle would infer
+        dependsOn(files);
     }
 
-    @InputFile
+    /** Returns the project's jar, which is tracked through {@link #getClasspathKey()} along with the classpath. */
+    @Internal
     public final Provider<RegularFile> getJarFiles() {
         return jarFile;
     }
@@ -247,11 +509,191 @@ public abstract class BaseGraalCompileTask extends DefaultTask {
         jarFile.set(getProject().getLayout().file(provider));
     }
 
+    /**
+     * Returns the directories of reflection, JNI, proxy and resource configuration passed to native-image, such as
+     * those written by tasks traced with the native-image agent.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public final FileCollection getConfigurationDirectories() {
+        return configurationDirectories;
+    }
+
+    public final void setConfigurationDirectories(FileCollection files) {
+        configurationDirectories.setFrom(files);
+    }
+
+    /**
+     * Returns the classpath trimmed by {@link PruneClasspathTask}, which replaces the classpath and jar when present.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @org.gradle.api.tasks.Optional
+    public final Provider<Directory> getPrunedClasspath() {
+        return prunedClasspath;
+    }
+
+    public final void setPrunedClasspath(Provider<Directory> provider) {
+        prunedClasspath.set(provider);
+    }
+
+    /**
+     * Returns the fingerprint of the classpath and jar, looked up in the {@link ClasspathFingerprints} index rather
+     * than hashed by Gradle for every task and build. Absent when the {@link #getPrunedClasspath() pruned classpath}
+     * is used instead.
+     */
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getClasspathKey() {
+        return classpathKey;
+    }
+
+    @Internal
+    public final Provider<ClasspathFingerprints> getClasspathFingerprints() {
+        return classpathFingerprints;
+    }
+
+    public final void setClasspathFingerprints(Provider<ClasspathFingerprints> provider) {
+        classpathFingerprints.set(provider);
+    }
+
+    @Internal
+    public final Provider<GraalResourceBudget> getResourceBudget() {
+        return resourceBudget;
+    }
+
+    public final void setResourceBudget(Provider<GraalResourceBudget> provider) {
+        resourceBudget.set(provider);
+    }
+
+    /**
+     * Returns the heap given to native-image, unless the options set one. Not an input, as it does not change the
+     * output.
+     */
+    @Internal
+    public final Provider<Long> getMemoryMegabytes() {
+        return memoryMegabytes;
+    }
+
+    public final void setMemoryMegabytes(Provider<Long> provider) {
+        memoryMegabytes.set(provider);
+    }
+
+    /**
+     * Returns the number of threads native-image uses, unless the options set it. Not an input, as it does not change
+     * the output.
+     */
+    @Internal
+    public final Provider<Integer> getParallelism() {
+        return parallelism;
+    }
+
+    public final void setParallelism(Provider<Integer> provider) {
+        parallelism.set(provider);
+    }
+
+    /** Returns the garbage collector native-image runs with, unless the options select one. Not an input either. */
+    @Internal
+    public final Provider<String> getGarbageCollector() {
+        return garbageCollector;
+    }
+
+    public final void setGarbageCollector(Provider<String> provider) {
+        garbageCollector.set(provider);
+    }
+
+    /**
+     * Returns the SHA-256 of the archive the GraalVM distribution was installed from, which tells apart distributions
+     * that share a version, such as rebuilt or patched releases. Absent for distributions installed before checksums
+     * were recorded.
+     */
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getDistributionChecksum() {
+        return distributionChecksum;
+    }
+
+    public final void setDistributionChecksum(Provider<String> provider) {
+        distributionChecksum.set(provider);
+    }
+
+    /**
+     * Returns whether native-image builds on a build server kept running between builds. Not an input, as the server
+     * builds the same image.
+     */
+    @Internal
+    public final Provider<Boolean> getBuildServer() {
+        return buildServer;
+    }
+
+    public final void setBuildServer(Provider<Boolean> provider) {
+        buildServer.set(provider);
+    }
+
+    @Internal
+    public final Provider<GraalBuildServers> getBuildServers() {
+        return buildServers;
+    }
+
+    public final void setBuildServers(Provider<GraalBuildServers> provider) {
+        buildServers.set(provider);
+    }
+
+    /** Returns the optimization level of the profile this task builds, if any. */
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    public final void setOptimizationLevel(Provider<String> provider) {
+        optimizationLevel.set(provider);
+    }
+
+    /** Returns whether the image keeps its debug information. */
+    @Input
+    public final Provider<Boolean> getDebugInfo() {
+        return debugInfo;
+    }
+
+    public final void setDebugInfo(Provider<Boolean> provider) {
+        debugInfo.set(provider);
+    }
+
+    /** Returns the options of the profile this task builds, which come after the other options. */
+    @Input
+    public final ListProperty<String> getProfileOptions() {
+        return profileOptions;
+    }
+
+    public final void setProfileOptions(Provider<List<String>> provider) {
+        profileOptions.set(provider);
+    }
+
+    /** Returns the directory the output is written to, {@code build/graal} unless set otherwise. */
+    @Internal
+    public final Provider<Directory> getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public final void setOutputDirectory(Provider<Directory> provider) {
+        outputDirectory.set(provider);
+    }
+
     @OutputFile
     public final Provider<RegularFile> getOutputFile() {
         return outputFile;
     }
 
+    /**
+     * Returns the directory holding the build report, {@code build-report.json} and {@code build-report.csv}, with
+     * the phase timings, peak memory, reachable types and methods, and section sizes native-image printed.
+     */
+    @OutputDirectory
+    public final Provider<Directory> getReportsDirectory() {
+        return reportsDirectory;
+    }
+
     public final void setOutputName(Provider<String> provider) {
         outputName.set(provider);
     }
@@ -0,0 +1,254 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Fingerprints classpaths from an index of the content hashes of their files, which is shared by every task of a build
+ * and persisted in the plugin's cache directory for later builds.
+ *
+ * <p>A file is only hashed again when its path, size or modification time differ from those it was indexed with, so
+ * the jars of a classpath that has not changed are fingerprinted with a single {@code stat} each. Like Gradle's
+ * {@code @Classpath} normalization, jars are hashed by the names and contents of their entries, leaving out timestamps
+ * and entry order, and the fingerprint of a classpath depends on the order of its entries but not on where they are,
+ * so it can be shared through the build cache.</p>
+ *
+ * <p>The index is read when first needed and written back when the build finishes, merged with whatever other builds
+ * wrote in the meantime. Entries of files that no longer exist are dropped then.</p>
+ */
+public abstract class ClasspathFingerprints implements BuildService<ClasspathFingerprints.Params>, AutoCloseable {
+    static final String NAME = "graalClasspathFingerprints";
+    static final String INDEX_FILE = "classpath-fingerprints.index";
+
+    private static final Logger log = Logging.getLogger(ClasspathFingerprints.class);
+
+    private final ConcurrentMap<String, Fingerprint> index = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private volatile boolean changed;
+
+    /** Returns the SHA-256 of the contents of {@code classpath}, in order, leaving out entries that do not exist. */
+    final String key(List<File> classpath) throws IOException {
+        load();
+        MessageDigest digest = GraalDownloader.sha256();
+        for (File entry : classpath) {
+            if (entry.isDirectory()) {
+                digest.update(directoryHash(entry.toPath()).getBytes(StandardCharsets.UTF_8));
+            } else if (entry.isFile()) {
+                digest.update(fileHash(entry.toPath()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return GraalDownloader.toHex(digest.digest());
+    }
+
+    @Override
+    public final void close() throws IOException {
+        if (changed) {
+            save();
+        }
+    }
+
+    private String directoryHash(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        MessageDigest digest = GraalDownloader.sha256();
+        for (Path file : files) {
+            digest.update(directory.relativize(file).toString().replace(File.separatorChar, '/')
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(fileHash(file).getBytes(StandardCharsets.UTF_8));
+        }
+        return GraalDownloader.toHex(digest.digest());
+    }
+
+    private String fileHash(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String path = file.toAbsolutePath().normalize().toString();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Fingerprint indexed = index.get(path);
+        if (indexed != null && indexed.size == attributes.size() && indexed.lastModified == modified) {
+            return indexed.hash;
+        }
+        String hash = isJar(file) ? jarHash(file) : GraalDownloader.toHex(contentHash(file));
+        index.put(path, new Fingerprint(attributes.size(), modified, hash));
+        changed = true;
+        return hash;
+    }
+
+    private static boolean isJar(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    private static String jarHash(Path jar) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                MessageDigest digest = GraalDownloader.sha256();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    update(digest, in);
+                }
+                entries.add(entry.getName() + '\0' + GraalDownloader.toHex(digest.digest()));
+            }
+        } catch (ZipException e) {
+            // not an archive after all, such as a resource file on the classpath
+            return GraalDownloader.toHex(contentHash(jar));
+        }
+        Collections.sort(entries);
+        MessageDigest digest = GraalDownloader.sha256();
+        for (String entry : entries) {
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return GraalDownloader.toHex(digest.digest());
+    }
+
+    private static byte[] contentHash(Path file) throws IOException {
+        MessageDigest digest = GraalDownloader.sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            update(digest, in);
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                Path indexFile = indexFile();
+                try (GraalCacheLock _lock = GraalCacheLock.acquireShared(lockFile(indexFile), log)) {
+                    read(indexFile).forEach(index::putIfAbsent);
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    private synchronized void save() throws IOException {
+        Path indexFile = indexFile();
+        try (GraalCacheLock _lock = GraalCacheLock.acquire(lockFile(indexFile), log)) {
+            // entries hashed by this build win over those other builds wrote meanwhile, which may be just as new
+            Map<String, Fingerprint> merged = read(indexFile);
+            merged.putAll(index);
+            Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Fingerprint> entry : merged.entrySet()) {
+                    if (Files.exists(Paths.get(entry.getKey()))) {
+                        Fingerprint fingerprint = entry.getValue();
+                        writer.write(fingerprint.hash + "\t" + fingerprint.size + "\t" + fingerprint.lastModified
+                                + "\t" + entry.getKey() + "\n");
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Reads an index, skipping lines it cannot make sense of, as the index is only ever a shortcut. */
+    static Map<String, Fingerprint> read(Path indexFile) throws IOException {
+        Map<String, Fingerprint> entries = new ConcurrentHashMap<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+        for (String line : lines) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                entries.put(
+                        fields[3], new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed classpath fingerprint {}", line, e);
+            }
+        }
+        return entries;
+    }
+
+    private Path indexFile() throws IOException {
+        Path indexFile = getParameters().getCacheDir().get().toPath().resolve(INDEX_FILE);
+        Files.createDirectories(indexFile.getParent());
+        return indexFile;
+    }
+
+    private static Path lockFile(Path indexFile) {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".lock");
+    }
+
+    static final class Fingerprint {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        Fingerprint(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    public interface Params extends BuildServiceParameters {
+        /** The plugin's cache directory, which holds the index. */
+        Property<File> getCacheDir();
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Trims a classpath down to the classes reachable from a set of roots, so native-image has less to analyse.
+ *
+ * <p>Reachability is computed from the constant pools of the class files: a class reaches every class its constant
+ * pool names, whether as a type, in a descriptor or signature, or as a string such as a {@code Class.forName}
+ * argument. This overapproximates what the code can use, except for class names that are computed at run time, which
+ * native-image needs configuration for anyway. So that such configuration keeps working, the classes named in
+ * {@code META-INF/native-image} and {@code META-INF/services} files are roots too, as are those named in configuration
+ * files given to native-image directly, and classes that use the native-image API, like features and substitutions,
+ * which native-image finds by scanning the classpath.</p>
+ *
+ * <p>Only the first of several classes with the same name is kept, as only that one could ever be loaded. Resources
+ * are all kept, as their use cannot be told from the bytecode. Entries are written in classpath order as jars with
+ * fixed timestamps, so the same classpath always prunes to the same bytes.</p>
+ */
+final class ClasspathPruner {
+    static final String CLASSPATH_FILE = "classpath.txt";
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>\\[]+)[;<]");
+    private static final Pattern TOKEN = Pattern.compile("[\\w$./]+");
+    private static final Pattern SIGNATURE_FILE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)");
+    private static final String[] NATIVE_IMAGE_PACKAGES = {"com/oracle/svm/", "org/graalvm/nativeimage/"};
+    // 1980-02-01, the time Gradle gives the entries of reproducible archives
+    private static final long FIXED_ENTRY_TIME = 318211200000L;
+
+    private ClasspathPruner() {}
+
+    /**
+     * Writes the classes of {@code classpath} that are reachable from all classes of {@code rootEntries} and the
+     * classes named by {@code rootNames} or in the {@code configurationFiles} into {@code outputDir}, along with a
+     * {@value #CLASSPATH_FILE} listing the written jars in order.
+     */
+    static Result prune(
+            List<File> classpath,
+            Set<File> rootEntries,
+            Collection<String> rootNames,
+            Collection<File> configurationFiles,
+            Path outputDir)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            for (File file : classpath) {
+                if (file.isFile()) {
+                    entries.add(new JarClasspathEntry(file));
+                } else if (file.isDirectory()) {
+                    entries.add(new DirectoryClasspathEntry(file.toPath()));
+                }
+            }
+
+            Map<String, Entry> classes = new HashMap<>();
+            Set<String> textRoots = new HashSet<>(rootNames);
+            for (File file : configurationFiles) {
+                textRoots.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            }
+            for (Entry entry : entries) {
+                for (String name : entry.names()) {
+                    if (isClass(name) && !name.startsWith(VERSIONS_PREFIX)) {
+                        classes.putIfAbsent(className(name), entry);
+                    } else if (name.startsWith("META-INF/native-image/") || name.startsWith("META-INF/services/")) {
+                        textRoots.add(name.substring(name.lastIndexOf('/') + 1));
+                        textRoots.add(new String(entry.read(name), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+
+            Deque<String> pending = new ArrayDeque<>();
+            for (Entry entry : entries) {
+                boolean rootEntry = rootEntries.contains(entry.file());
+                for (String name : entry.names()) {
+                    if (!isClass(name) || name.startsWith(VERSIONS_PREFIX) || classes.get(className(name)) != entry) {
+                        continue;
+                    }
+                    if (rootEntry || usesNativeImage(constantPoolStrings(entry.read(name)))) {
+                        pending.add(className(name));
+                    }
+                }
+            }
+            for (String text : textRoots) {
+                Matcher tokens = TOKEN.matcher(text);
+                while (tokens.find()) {
+                    pending.add(tokens.group().replace('.', '/'));
+                }
+            }
+
+            Set<String> reachable = new HashSet<>();
+            while (!pending.isEmpty()) {
+                String name = pending.poll();
+                Entry entry = classes.get(name);
+                if (entry == null || !reachable.add(name)) {
+                    continue;
+                }
+                for (String string : constantPoolStrings(entry.read(name + CLASS_SUFFIX))) {
+                    referencedClasses(string, pending);
+                }
+            }
+
+            return write(entries, classes, reachable, outputDir);
+        } finally {
+            for (Entry entry : entries) {
+                entry.close();
+            }
+        }
+    }
+
+    private static Result write(List<Entry> entries, Map<String, Entry> classes, Set<String> reachable, Path outputDir)
+            throws IOException {
+        FileUtil.deleteRecursively(outputDir);
+        Files.createDirectories(outputDir);
+        List<String> written = new ArrayList<>();
+        for (Entry entry : entries) {
+            List<String> kept = entry.names().stream()
+                    .filter(name -> keep(name, entry, classes, reachable))
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (kept.stream().allMatch(name -> name.endsWith("/") || name.equals("META-INF/MANIFEST.MF"))) {
+                continue;
+            }
+            String fileName = String.format("%03d-%s", written.size(), entry.file().getName());
+            fileName = fileName.endsWith(".jar") ? fileName : fileName + ".jar";
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outputDir.resolve(fileName)))) {
+                for (String name : kept) {
+                    ZipEntry zipEntry = new ZipEntry(name);
+                    zipEntry.setTime(FIXED_ENTRY_TIME);
+                    out.putNextEntry(zipEntry);
+                    if (!name.endsWith("/")) {
+                        out.write(entry.read(name));
+                    }
+                    out.closeEntry();
+                }
+            }
+            written.add(fileName);
+        }
+        Files.write(outputDir.resolve(CLASSPATH_FILE), written, StandardCharsets.UTF_8);
+        return new Result(classes.size(), reachable.size(), entries.size(), written.size());
+    }
+
+    private static boolean keep(String name, Entry entry, Map<String, Entry> classes, Set<String> reachable) {
+        if (SIGNATURE_FILE.matcher(name).matches() || name.endsWith("module-info.class")) {
+            // signatures no longer match the pruned jar, and module descriptors are not used on the classpath
+            return false;
+        }
+        if (!isClass(name)) {
+            return true;
+        }
+        String className = className(name);
+        // multi-release variants of a class go with its base version
+        return reachable.contains(className) && classes.get(className) == entry;
+    }
+
+    private static boolean isClass(String name) {
+        return name.endsWith(CLASS_SUFFIX);
+    }
+
+    private static String className(String name) {
+        String className = name.substring(0, name.length() - CLASS_SUFFIX.length());
+        if (className.startsWith(VERSIONS_PREFIX)) {
+            int versionEnd = className.indexOf('/', VERSIONS_PREFIX.length());
+            return versionEnd < 0 ? className : className.substring(versionEnd + 1);
+        }
+        return className;
+    }
+
+    /** Adds the internal names of the classes a constant pool string may refer to. */
+    static void referencedClasses(String string, Collection<String> names) {
+        names.add(string);
+        if (string.indexOf('.') >= 0) {
+            names.add(string.replace('.', '/'));
+        }
+        if (string.indexOf(';') >= 0) {
+            Matcher descriptor = DESCRIPTOR_CLASS.matcher(string);
+            while (descriptor.find()) {
+                names.add(descriptor.group(1));
+            }
+        }
+    }
+
+    private static boolean usesNativeImage(List<String> strings) {
+        for (String string : strings) {
+            for (String nativeImagePackage : NATIVE_IMAGE_PACKAGES) {
+                if (string.contains(nativeImagePackage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the {@code CONSTANT_Utf8} entries of a class file, which hold every name the class refers to. */
+    static List<String> constantPoolStrings(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        int count = in.readUnsignedShort();
+        List<String> strings = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    strings.add(in.readUTF());
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    // eight-byte constants take up two slots
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        return strings;
+    }
+
+    /** How much of the classpath was kept. */
+    static final class Result {
+        private final int classes;
+        private final int reachableClasses;
+        private final int entries;
+        private final int keptEntries;
+
+        Result(int classes, int reachableClasses, int entries, int keptEntries) {
+            this.classes = classes;
+            this.reachableClasses = reachableClasses;
+            this.entries = entries;
+            this.keptEntries = keptEntries;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "kept %d of %d classes and %d of %d classpath entries",
+                    reachableClasses, classes, keptEntries, entries);
+        }
+    }
+
+    /** A jar or directory on the classpath. */
+    private interface Entry extends AutoCloseable {
+        File file();
+
+        List<String> names();
+
+        byte[] read(String name) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class JarClasspathEntry implements Entry {
+        private final File file;
+        private final ZipFile zip;
+        private final List<String> names;
+
+        JarClasspathEntry(File file) throws IOException {
+            this.file = file;
+            this.zip = new ZipFile(file);
+            this.names = zip.stream().map(ZipEntry::getName).collect(Collectors.toList());
+        }
+
+        @Override
+        public File file() {
+            return file;
+        }
+
+        @Override
+        public List<String> names() {
+            return names;
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            ZipEntry entry = zip.getEntry(name);
+            if (entry == null) {
+                throw new IOException("No " + name + " in " + file);
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static final class DirectoryClasspathEntry implements Entry {
+        private final Path directory;
+        private final List<String> names;
+
+        DirectoryClasspathEntry(Path directory) throws IOException {
+            this.directory = directory;
+            try (Stream<Path> files = Files.walk(directory)) {
+                this.names = files.filter(Files::isRegularFile)
+                        .map(file -> directory.relativize(file).toString().replace(File.separatorChar, '/'))
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public File file() {
+            return directory.toFile();
+        }
+
+        @Override
+        public List<String> names() {
+            return names;
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            return Files.readAllBytes(directory.resolve(name));
+        }
+
+        @Override
+        public void close() {}
+    }
+}
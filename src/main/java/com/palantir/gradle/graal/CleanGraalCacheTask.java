@@ -0,0 +1,108 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Evicts GraalVM versions from the shared tool cache. Without any configured limits, every version except the one this
+ * project is configured with is evicted.
+ */
+public class CleanGraalCacheTask extends DefaultTask {
+    private final Property<String> graalVersion = getProject().getObjects().property(String.class);
+    private final Property<String> javaVersion = getProject().getObjects().property(String.class);
+    private final Property<Long> cacheMaxBytes = getProject().getObjects().property(Long.class);
+    private final Property<Integer> cacheMaxVersions = getProject().getObjects().property(Integer.class);
+    private final Property<Integer> cacheMaxUnusedDays = getProject().getObjects().property(Integer.class);
+    private final Property<Path> cacheDir = getProject().getObjects().property(Path.class);
+
+    public CleanGraalCacheTask() {
+        setGroup(GradleGraalPlugin.TASK_GROUP);
+        setDescription("Evicts GraalVM versions from the cache that exceed the configured limits, or all versions but"
+                + " the configured one if no limits are set.");
+    }
+
+    @TaskAction
+    public final void cleanGraalCache() throws IOException {
+        boolean limited = cacheMaxBytes.isPresent() || cacheMaxVersions.isPresent() || cacheMaxUnusedDays.isPresent();
+        new GraalCacheCleaner(cacheDir.get(), getLogger())
+                .clean(
+                        Optional.ofNullable(cacheMaxBytes.getOrNull()),
+                        limited ? Optional.ofNullable(cacheMaxVersions.getOrNull()) : Optional.of(0),
+                        Optional.ofNullable(cacheMaxUnusedDays.getOrNull()).map(Duration::ofDays),
+                        graalVersion.get(),
+                        javaVersion.get());
+    }
+
+    @Input
+    public final Provider<String> getGraalVersion() {
+        return graalVersion;
+    }
+
+    public final void setGraalVersion(Provider<String> provider) {
+        graalVersion.set(provider);
+    }
+
+    @Input
+    public final Provider<String> getJavaVersion() {
+        return javaVersion;
+    }
+
+    public final void setJavaVersion(Provider<String> provider) {
+        javaVersion.set(provider);
+    }
+
+    @Internal
+    public final Provider<Long> getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public final void setCacheMaxBytes(Provider<Long> provider) {
+        cacheMaxBytes.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getCacheMaxVersions() {
+        return cacheMaxVersions;
+    }
+
+    public final void setCacheMaxVersions(Provider<Integer> provider) {
+        cacheMaxVersions.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getCacheMaxUnusedDays() {
+        return cacheMaxUnusedDays;
+    }
+
+    public final void setCacheMaxUnusedDays(Provider<Integer> provider) {
+        cacheMaxUnusedDays.set(provider);
+    }
+
+    final void setCacheDir(Path value) {
+        cacheDir.set(value);
+    }
+}
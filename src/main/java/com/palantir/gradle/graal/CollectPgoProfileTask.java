@@ -0,0 +1,112 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+/**
+ * Runs an image built with {@code --pgo-instrument} against a workload, and collects the {@code .iprof} profile it
+ * writes on exit for an optimized rebuild with {@code --pgo}.
+ */
+public abstract class CollectPgoProfileTask extends DefaultTask {
+    private final RegularFileProperty instrumentedImage = getProject().getObjects().fileProperty();
+    private final ListProperty<String> args = getProject().getObjects().listProperty(String.class);
+    private final RegularFileProperty profile = getProject().getObjects().fileProperty();
+    private final File projectDirectory = getProject().getProjectDir();
+
+    public CollectPgoProfileTask() {
+        setGroup(GradleGraalPlugin.TASK_GROUP);
+        setDescription("Runs the instrumented native image against its workload to collect a profile for PGO.");
+    }
+
+    /**
+     * Returns the service that runs processes, injected by Gradle.
+     */
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @TaskAction
+    public final void collectPgoProfile() throws IOException {
+        File profileFile = profile.get().getAsFile();
+        // a profile left over from an earlier run must not pass for one written by this run
+        Files.deleteIfExists(profileFile.toPath());
+        Files.createDirectories(profileFile.getParentFile().toPath());
+
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(instrumentedImage.get().getAsFile().getAbsolutePath());
+        commandLine.add("-XX:ProfilesDumpFile=" + profileFile.getAbsolutePath());
+        commandLine.addAll(args.get());
+        getExecOperations().exec(spec -> spec.commandLine(commandLine));
+
+        if (!profileFile.isFile()) {
+            throw new GradleException("The instrumented image did not write a profile to " + profileFile
+                    + "; it must exit normally, and be built by a GraalVM that supports PGO");
+        }
+        getLogger()
+                .lifecycle(
+                        "PGO profile available at {}", projectDirectory.toPath().relativize(profileFile.toPath()));
+    }
+
+    /** Returns the image built with {@code --pgo-instrument}. Only its contents matter, not where it was built. */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final Provider<RegularFile> getInstrumentedImage() {
+        return instrumentedImage;
+    }
+
+    public final void setInstrumentedImage(Provider<RegularFile> provider) {
+        instrumentedImage.set(provider);
+    }
+
+    /** Returns the arguments the instrumented image is run with, which make up the workload that is profiled. */
+    @Input
+    public final ListProperty<String> getArgs() {
+        return args;
+    }
+
+    public final void setArgs(Provider<List<String>> provider) {
+        args.set(provider);
+    }
+
+    @OutputFile
+    public final Provider<RegularFile> getProfile() {
+        return profile;
+    }
+
+    public final void setProfile(Provider<RegularFile> provider) {
+        profile.set(provider);
+    }
+}
@@ -16,17 +16,27 @@
 
 package com.palantir.gradle.graal;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
@@ -45,31 +55,154 @@ public class DownloadGraalTask extends DefaultTask {
     private final Property<String> javaVersion = getProject().getObjects().property(String.class);
     private final Property<String> downloadBaseUrl = getProject().getObjects().property(String.class);
     private final Property<Path> cacheDir = getProject().getObjects().property(Path.class);
+    private final Property<Integer> downloadConnections = getProject().getObjects().property(Integer.class);
+    private final Property<Long> downloadChunkSize = getProject().getObjects().property(Long.class);
+    private final Property<Integer> downloadTimeoutSeconds = getProject().getObjects().property(Integer.class);
+    private final Property<String> checksum = getProject().getObjects().property(String.class);
+    private final Property<Boolean> checksumFromSidecar = getProject().getObjects().property(Boolean.class);
+    private final Property<Boolean> pipelinedInstall = getProject().getObjects().property(Boolean.class);
+    private final Property<String> graalDirectoryName = getProject().getObjects().property(String.class);
+    private final ListProperty<String> mirrors = getProject().getObjects().listProperty(String.class);
+    private final Property<String> mavenModule = getProject().getObjects().property(String.class);
+    private final ConfigurableFileCollection mavenArtifacts = getProject().files();
+    private final Property<Boolean> offline = getProject().getObjects().property(Boolean.class);
+    private final Property<GraalProvisioningService> provisioningService =
+            getProject().getObjects().property(GraalProvisioningService.class);
+    private final RegularFileProperty archive = getProject().getObjects().fileProperty();
 
     public DownloadGraalTask() {
         setGroup(GradleGraalPlugin.TASK_GROUP);
         setDescription("Downloads and caches GraalVM binaries.");
 
-        onlyIf(_task -> !getArchive().get().getAsFile().exists());
+        // a pipelined install streams the archive straight into extractGraalTooling instead
+        onlyIf(_task -> !pipelinedInstall.get() && needsDownload());
+        archive.fileProvider(getCacheSubdirectory().map(dir -> dir.resolve(javaVersion.get())
+                .resolve(render(FILENAME_PATTERN))
+                .toFile()));
     }
 
     @TaskAction
     public final void downloadGraal() throws IOException {
-        Files.createDirectories(getArchive().get().getAsFile().toPath().getParent());
+        Path lockFile = GraalCacheLock.lockFile(cacheDir.get(), graalVersion.get(), javaVersion.get());
+        provisioningService.get().provision(getArchive().get().getAsFile().toPath(), () -> {
+            try (GraalCacheLock _lock = GraalCacheLock.acquire(lockFile, getLogger())) {
+                // another build may have finished the download while this one waited for the lock
+                if (needsDownload()) {
+                    download();
+                }
+            }
+        });
+    }
+
+    private void download() throws IOException {
+        Path archive = getArchive().get().getAsFile().toPath();
+        Files.createDirectories(archive.getParent());
+
+        Set<File> resolvedArtifacts = mavenArtifacts.getFiles();
+        List<URL> sources =
+                GraalSources.order(getDownloadUrls().get(), resolvedArtifacts, offline.get(), getLogger());
+        GraalDownloader downloader = new GraalDownloader(
+                downloadConnections.get(), downloadChunkSize.get(), downloadTimeoutMillis(), getLogger());
+        GraalSources.fetchFromFirst(
+                sources, source -> fetch(downloader, source, archive, resolvedArtifacts), getLogger());
+    }
 
-        final String artifactPattern =
-                isGraalRcVersion() ? ARTIFACT_PATTERN_RC_VERSION : ARTIFACT_PATTERN_RELEASE_VERSION;
+    private void fetch(GraalDownloader downloader, URL source, Path archive, Set<File> resolvedArtifacts)
+            throws IOException {
+        // artifacts resolved by Gradle are covered by its own dependency verification instead of a sidecar
+        boolean fromSidecar = checksumFromSidecar.get() && !GraalSources.isResolvedArtifact(source, resolvedArtifacts);
+        Optional<String> expectedChecksum = GraalDownloader.expectedChecksum(
+                source, Optional.ofNullable(checksum.getOrNull()), fromSidecar, downloadTimeoutMillis());
 
-        try (InputStream in = new URL(render(artifactPattern)).openStream()) {
-            Files.copy(in, getArchive().get().getAsFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (Files.exists(archive)) {
+            // an archive cached before its digest was recorded is hashed once rather than downloaded again
+            String actualChecksum = GraalDownloader.hashFile(archive);
+            if (!expectedChecksum.isPresent() || expectedChecksum.get().equalsIgnoreCase(actualChecksum)) {
+                Files.write(GraalDownloader.checksumFile(archive), actualChecksum.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            getLogger().warn("Cached {} does not match the expected SHA-256, downloading it again", archive);
+        }
+
+        downloader.download(source, archive, expectedChecksum);
+    }
+
+    private int downloadTimeoutMillis() {
+        return Math.toIntExact(TimeUnit.SECONDS.toMillis(downloadTimeoutSeconds.get()));
+    }
+
+    private boolean needsDownload() {
+        if (ExtractGraalTask.isInstalled(getInstallDirectory())) {
+            // the archive may well have been deleted after extraction, but either way it is not needed anymore
+            return false;
+        }
+        Path archive = getArchive().get().getAsFile().toPath();
+        if (!Files.exists(archive)) {
+            return true;
+        }
+        Optional<String> recordedChecksum = readRecordedChecksum(archive);
+        if (checksum.isPresent()) {
+            return !recordedChecksum.map(checksum.get()::equalsIgnoreCase).orElse(false);
+        }
+        // an archive with a recorded digest has already been verified, so it is trusted without re-hashing
+        return checksumFromSidecar.get() && !recordedChecksum.isPresent();
+    }
+
+    private static Optional<String> readRecordedChecksum(Path archive) {
+        Path checksumFile = GraalDownloader.checksumFile(archive);
+        if (!Files.isRegularFile(checksumFile)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new String(Files.readAllBytes(checksumFile), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            return Optional.empty();
         }
     }
 
     @OutputFile
     public final Provider<RegularFile> getArchive() {
-        return getProject().getLayout().file(getCacheSubdirectory().map(dir -> dir.resolve(javaVersion.get())
-                .resolve(render(FILENAME_PATTERN))
-                .toFile()));
+        return archive;
+    }
+
+    /** Returns the URL the GraalVM archive is downloaded from, unless a mirror provides it. */
+    @Internal
+    public final Provider<String> getDownloadUrl() {
+        return downloadBaseUrl.map(this::renderArtifactUrl);
+    }
+
+    /**
+     * Returns every URL the GraalVM archive may be fetched from: the mirrors, in the same layout as the download base
+     * URL, and for {@code file:} mirrors also directly inside the mirror directory, followed by the download URL.
+     */
+    @Internal
+    public final Provider<List<String>> getDownloadUrls() {
+        return mirrors.zip(getDownloadUrl(), (mirrorUrls, downloadUrl) -> {
+            String fileName = downloadUrl.substring(downloadUrl.lastIndexOf('/') + 1);
+            List<String> urls = new ArrayList<>();
+            for (String mirror : mirrorUrls) {
+                urls.add(renderArtifactUrl(mirror));
+                if (mirror.startsWith("file:")) {
+                    urls.add(mirror.replaceAll("/+$", "") + "/" + fileName);
+                }
+            }
+            urls.add(downloadUrl);
+            return urls;
+        });
+    }
+
+    /**
+     * Returns the notation of the Maven artifact for this GraalVM distribution:
+     * {@code <mavenModule>:<graalVersion>:java<javaVersion>-<os>-<arch>@<ext>}.
+     */
+    @Internal
+    public final Provider<String> getMavenDependencyNotation() {
+        return mavenModule.map(module -> mavenDependencyNotation(module, graalVersion.get(), javaVersion.get()));
+    }
+
+    static String mavenDependencyNotation(String mavenModule, String graalVersion, String javaVersion) {
+        return mavenModule + ":" + graalVersion + ":java" + javaVersion + "-" + getOperatingSystem(graalVersion) + "-"
+                + getArchitecture() + "@" + getArchiveExtension();
     }
 
     @Input
@@ -99,10 +232,116 @@ public class DownloadGraalTask extends DefaultTask {
         downloadBaseUrl.set(provider);
     }
 
+    @Input
+    public final Provider<List<String>> getMirrors() {
+        return mirrors;
+    }
+
+    public final void setMirrors(Provider<List<String>> provider) {
+        mirrors.set(provider);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getMavenModule() {
+        return mavenModule;
+    }
+
+    public final void setMavenModule(Provider<String> provider) {
+        mavenModule.set(provider);
+    }
+
+    /**
+     * Returns the GraalVM archive resolved from Maven repositories, if any. This is not an input, so that it is only
+     * resolved when the archive actually needs to be fetched; {@link #getMavenModule()} covers it instead.
+     */
+    @Internal
+    public final FileCollection getMavenArtifacts() {
+        return mavenArtifacts;
+    }
+
+    public final void setMavenArtifacts(FileCollection files) {
+        mavenArtifacts.setFrom(files);
+    }
+
+    @Internal
+    public final Provider<Boolean> getOffline() {
+        return offline;
+    }
+
+    public final void setOffline(Provider<Boolean> provider) {
+        offline.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getDownloadTimeoutSeconds() {
+        return downloadTimeoutSeconds;
+    }
+
+    public final void setDownloadTimeoutSeconds(Provider<Integer> provider) {
+        downloadTimeoutSeconds.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getDownloadConnections() {
+        return downloadConnections;
+    }
+
+    public final void setDownloadConnections(Provider<Integer> provider) {
+        downloadConnections.set(provider);
+    }
+
+    @Internal
+    public final Provider<Long> getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    public final void setDownloadChunkSize(Provider<Long> provider) {
+        downloadChunkSize.set(provider);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getChecksum() {
+        return checksum;
+    }
+
+    public final void setChecksum(Provider<String> provider) {
+        checksum.set(provider);
+    }
+
+    @Input
+    public final Provider<Boolean> getChecksumFromSidecar() {
+        return checksumFromSidecar;
+    }
+
+    public final void setChecksumFromSidecar(Provider<Boolean> provider) {
+        checksumFromSidecar.set(provider);
+    }
+
+    @Input
+    public final Provider<Boolean> getPipelinedInstall() {
+        return pipelinedInstall;
+    }
+
+    public final void setPipelinedInstall(Provider<Boolean> provider) {
+        pipelinedInstall.set(provider);
+    }
+
+    private Path getInstallDirectory() {
+        return cacheDir.get().resolve(graalVersion.get()).resolve(javaVersion.get()).resolve(graalDirectoryName.get());
+    }
+
     private Provider<Path> getCacheSubdirectory() {
         return cacheDir.map(dir -> dir.resolve(graalVersion.get()));
     }
 
+    private String renderArtifactUrl(String baseUrl) {
+        return render(
+                (isGraalRcVersion(graalVersion.get()) ? ARTIFACT_PATTERN_RC_VERSION : ARTIFACT_PATTERN_RELEASE_VERSION)
+                        .replace("[url]", baseUrl));
+    }
+
     private String render(String pattern) {
         final String computedJavaVersion = GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion.get(), 19, 3)
                 ? "java" + javaVersion.get()
@@ -110,16 +349,16 @@ public class DownloadGraalTask extends DefaultTask {
         return pattern.replaceAll("\\[url\\]", downloadBaseUrl.get())
                 .replaceAll("\\[version\\]", graalVersion.get())
                 .replaceAll("\\[javaVersion\\]", computedJavaVersion)
-                .replaceAll("\\[os\\]", getOperatingSystem())
+                .replaceAll("\\[os\\]", getOperatingSystem(graalVersion.get()))
                 .replaceAll("\\[arch\\]", getArchitecture())
                 .replaceAll("\\[ext\\]", getArchiveExtension())
                 .replaceAll("--", "-"); // for GraalVM < 19.3 there's only a Java8 package
     }
 
-    private String getOperatingSystem() {
+    private static String getOperatingSystem(String graalVersion) {
         switch (Platform.operatingSystem()) {
             case MAC:
-                return isGraalRcVersion() ? "macos" : "darwin";
+                return isGraalRcVersion(graalVersion) ? "macos" : "darwin";
             case LINUX:
                 return "linux";
             case WINDOWS:
@@ -129,7 +368,7 @@ public class DownloadGraalTask extends DefaultTask {
         }
     }
 
-    private String getArchitecture() {
+    private static String getArchitecture() {
         switch (Platform.architecture()) {
             case AMD64:
                 return "amd64";
@@ -138,7 +377,7 @@ public class DownloadGraalTask extends DefaultTask {
         }
     }
 
-    private String getArchiveExtension() {
+    private static String getArchiveExtension() {
         switch (Platform.operatingSystem()) {
             case MAC:
             case LINUX:
@@ -150,11 +389,24 @@ public class DownloadGraalTask extends DefaultTask {
         }
     }
 
-    private boolean isGraalRcVersion() {
-        return graalVersion.get().startsWith("1.0.0-rc");
+    private static boolean isGraalRcVersion(String graalVersion) {
+        return graalVersion.startsWith("1.0.0-rc");
+    }
+
+    @Internal
+    public final Provider<GraalProvisioningService> getProvisioningService() {
+        return provisioningService;
+    }
+
+    public final void setProvisioningService(Provider<GraalProvisioningService> provider) {
+        provisioningService.set(provider);
     }
 
     final void setCacheDir(Path value) {
         cacheDir.set(value);
     }
+
+    final void setGraalDirectoryName(Provider<String> value) {
+        graalDirectoryName.set(value);
+    }
 }
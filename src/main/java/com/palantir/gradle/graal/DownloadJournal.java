@@ -0,0 +1,160 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records which byte ranges of a partial download have already been written, so an interrupted download can be
+ * resumed instead of restarted.
+ *
+ * <p>The journal is a small text file next to the partial download:</p>
+ * <pre>
+ * length 398237184
+ * validator "5f2a-9c1b"
+ * 0-8388607
+ * 16777216-25165823
+ * </pre>
+ * <p>The validator is the ETag or Last-Modified header of the first response and is sent back as {@code If-Range}
+ * when resuming, so a changed remote file is downloaded from scratch rather than stitched together.</p>
+ */
+final class DownloadJournal {
+    private static final String LENGTH = "length ";
+    private static final String VALIDATOR = "validator ";
+
+    private final Path path;
+    private final List<Range> completed = new ArrayList<>();
+    private long length = -1;
+    private String validator = "";
+
+    private DownloadJournal(Path path) {
+        this.path = path;
+    }
+
+    /** Loads the journal at the given path, or returns an empty journal if it is missing or unreadable. */
+    static DownloadJournal load(Path path) {
+        DownloadJournal journal = new DownloadJournal(path);
+        if (!Files.isRegularFile(path)) {
+            return journal;
+        }
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.startsWith(LENGTH)) {
+                    journal.length = Long.parseLong(line.substring(LENGTH.length()));
+                } else if (line.startsWith(VALIDATOR)) {
+                    journal.validator = line.substring(VALIDATOR.length());
+                } else if (!line.isEmpty()) {
+                    int dash = line.indexOf('-');
+                    journal.completed.add(new Range(
+                            Long.parseLong(line.substring(0, dash)), Long.parseLong(line.substring(dash + 1))));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // a journal torn by a killed process is not worth failing the build over, just start again
+            return new DownloadJournal(path);
+        }
+        return journal;
+    }
+
+    boolean isResumable() {
+        return length >= 0;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    String getValidator() {
+        return validator;
+    }
+
+    /** Discards any previous state and starts a journal for a file of the given length. */
+    synchronized void start(long newLength, String newValidator) throws IOException {
+        length = newLength;
+        validator = newValidator;
+        completed.clear();
+        Files.write(
+                path,
+                (LENGTH + newLength + "\n" + VALIDATOR + newValidator + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Records that the inclusive range {@code start-end} has been written. */
+    synchronized void record(long start, long end) throws IOException {
+        completed.add(new Range(start, end));
+        Files.write(
+                path,
+                (start + "-" + end + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND,
+                StandardOpenOption.CREATE);
+    }
+
+    /** Returns the ranges that still need to be downloaded, each at most {@code chunkSize} bytes long. */
+    synchronized List<Range> missing(long chunkSize) {
+        List<Range> sorted = new ArrayList<>(completed);
+        sorted.sort(Comparator.comparingLong(Range::start));
+
+        List<Range> missing = new ArrayList<>();
+        long next = 0;
+        for (Range range : sorted) {
+            addChunks(missing, next, range.start() - 1, chunkSize);
+            next = Math.max(next, range.end() + 1);
+        }
+        addChunks(missing, next, length - 1, chunkSize);
+        return missing;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static void addChunks(List<Range> ranges, long start, long end, long chunkSize) {
+        for (long chunkStart = start; chunkStart <= end; chunkStart += chunkSize) {
+            ranges.add(new Range(chunkStart, Math.min(chunkStart + chunkSize - 1, end)));
+        }
+    }
+
+    /** An inclusive byte range, matching the semantics of the HTTP Range header. */
+    static final class Range {
+        private final long start;
+        private final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long start() {
+            return start;
+        }
+
+        long end() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+}
@@ -17,31 +17,52 @@
 package com.palantir.gradle.graal;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
 
-/** Extracts GraalVM tooling from downloaded tgz archive using the system's tar command. */
-public class ExtractGraalTask extends DefaultTask {
+/** Extracts GraalVM tooling from the downloaded tgz or zip archive without forking external processes. */
+public abstract class ExtractGraalTask extends DefaultTask {
     /**
      * These binaries get .cmd as their filename extension, instead of .cmd (on Windows).
      */
     private static final Set<String> WINDOWS_CMD_BINARIES =
             new HashSet<>(Arrays.asList("native-image", "native-image-configure", "polyglot", "gu"));
+    private static final String STAGING_PREFIX = ".extract-";
+    private static final String COMPLETION_MARKER = ".gradle-graal-complete";
 
     private final RegularFileProperty inputArchive = getProject().getObjects().fileProperty();
     private final Property<String> graalVersion = getProject().getObjects().property(String.class);
@@ -50,61 +71,210 @@ public class ExtractGraalTask extends DefaultTask {
     private final Property<Path> cacheDir = getProject().getObjects().property(Path.class);
     private final Property<String> graalDirectoryName =
             getProject().getObjects().property(String.class);
+    private final Property<Boolean> pipelinedInstall = getProject().getObjects().property(Boolean.class);
+    private final Property<Boolean> keepArchive = getProject().getObjects().property(Boolean.class);
+    private final ListProperty<String> downloadUrls = getProject().getObjects().listProperty(String.class);
+    private final ConfigurableFileCollection mavenArtifacts = getProject().files();
+    private final Property<Boolean> offline = getProject().getObjects().property(Boolean.class);
+    private final Property<Integer> downloadTimeoutSeconds = getProject().getObjects().property(Integer.class);
+    private final Property<String> checksum = getProject().getObjects().property(String.class);
+    private final Property<Boolean> checksumFromSidecar = getProject().getObjects().property(Boolean.class);
+    private final Property<Long> cacheMaxBytes = getProject().getObjects().property(Long.class);
+    private final Property<Integer> cacheMaxVersions = getProject().getObjects().property(Integer.class);
+    private final Property<Integer> cacheMaxUnusedDays = getProject().getObjects().property(Integer.class);
+    private final Property<GraalProvisioningService> provisioningService =
+            getProject().getObjects().property(GraalProvisioningService.class);
 
     public ExtractGraalTask() {
         setGroup(GradleGraalPlugin.TASK_GROUP);
-        setDescription("Extracts GraalVM tooling from downloaded archive using the system's tar command or Gradle's"
-                + " copy method.");
+        setDescription("Extracts GraalVM tooling from downloaded archive.");
 
-        onlyIf(_task -> !getOutputDirectory().get().getAsFile().exists());
-        outputDirectory.set(cacheDir.map(_cd -> getProject()
-                .getLayout()
-                .getProjectDirectory()
-                .dir(cacheDir.get().toFile().getAbsolutePath())
-                .dir(graalVersion.get())
-                .dir(javaVersion.get())
-                .dir(graalDirectoryName.get())));
+        onlyIf(_task -> !isInstalled(getOutputDirectory().get().getAsFile().toPath()));
+        outputDirectory.fileProvider(cacheDir.map(dir -> dir.resolve(
+                        Paths.get(graalVersion.get(), javaVersion.get(), graalDirectoryName.get()))
+                .toAbsolutePath()
+                .toFile()));
     }
 
+    /** Returns the service that runs {@code gu} for distributions without native-image, injected by Gradle. */
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
     @TaskAction
-    public final void extractGraal() {
+    public final void extractGraal() throws IOException {
         if (!graalVersion.isPresent()) {
             throw new IllegalStateException("extract task requires graal.graalVersion to be defined.");
         }
 
-        Project project = getProject();
+        Path outputDir = getOutputDirectory().get().getAsFile().toPath();
+        Path lockFile = GraalCacheLock.lockFile(cacheDir.get(), graalVersion.get(), javaVersion.get());
+        AtomicBoolean extracted = new AtomicBoolean();
+        provisioningService.get().provision(outputDir, () -> {
+            try (GraalCacheLock _lock = GraalCacheLock.acquire(lockFile, getLogger())) {
+                // another build may have finished the install while this one waited for the lock
+                if (!isInstalled(outputDir) && !adoptLegacyInstall(outputDir)) {
+                    extract(outputDir);
+                    extracted.set(true);
+                }
+            }
+        });
+
+        // evict only once the new version's lock has been released, the cleaner must be able to take any other one
+        if (extracted.get()
+                && (cacheMaxBytes.isPresent() || cacheMaxVersions.isPresent() || cacheMaxUnusedDays.isPresent())) {
+            new GraalCacheCleaner(cacheDir.get(), getLogger())
+                    .clean(
+                            Optional.ofNullable(cacheMaxBytes.getOrNull()),
+                            Optional.ofNullable(cacheMaxVersions.getOrNull()),
+                            Optional.ofNullable(cacheMaxUnusedDays.getOrNull()).map(Duration::ofDays),
+                            graalVersion.get(),
+                            javaVersion.get());
+        }
+    }
+
+    private void extract(Path outputDir) throws IOException {
         File inputArchiveFile = inputArchive.get().getAsFile();
         Path versionedCacheDir = cacheDir.get().resolve(Paths.get(graalVersion.get(), javaVersion.get()));
 
-        if (inputArchiveFile.getName().endsWith(".zip")) {
-            project.copy(copySpec -> {
-                copySpec.from(project.zipTree(inputArchiveFile));
-                copySpec.into(versionedCacheDir);
-            });
-        } else {
-            // ideally this would be a CopyTask, but through Gradle 4.9 CopyTask fails to correctly extract symlinks
-            project.exec(spec -> {
-                spec.executable("tar");
-                spec.args("-xzf", inputArchiveFile.getAbsolutePath());
-                spec.workingDir(versionedCacheDir);
-            });
+        // extract next to the final location and rename into place, so an interrupted build never leaves a
+        // half-extracted distribution behind that later builds would mistake for a complete one
+        Files.createDirectories(versionedCacheDir);
+        deleteAbandonedStagingDirectories(versionedCacheDir);
+        Path stagingDir = Files.createTempDirectory(versionedCacheDir, STAGING_PREFIX);
+        try {
+            String archiveChecksum;
+            if (pipelinedInstall.get() && !inputArchiveFile.exists()) {
+                // nothing is published until the stream has been verified, so a bad download only costs the staging dir
+                archiveChecksum = stream(inputArchiveFile, stagingDir);
+            } else {
+                try (InputStream in = Files.newInputStream(inputArchiveFile.toPath())) {
+                    GraalArchiveExtractor.extract(in, inputArchiveFile.getName(), stagingDir);
+                }
+                Path checksumFile = GraalDownloader.checksumFile(inputArchiveFile.toPath());
+                archiveChecksum = Files.isRegularFile(checksumFile)
+                        ? new String(Files.readAllBytes(checksumFile), StandardCharsets.UTF_8).trim()
+                        : "";
+            }
+
+            Path stagedGraalHome = stagingDir.resolve(graalDirectoryName.get());
+            if (!Files.isDirectory(stagedGraalHome)) {
+                throw new IllegalStateException(
+                        "Archive " + inputArchiveFile + " did not contain " + graalDirectoryName.get());
+            }
+
+            File nativeImageExecutable = getExecutable(stagedGraalHome, "native-image");
+            if (!nativeImageExecutable.isFile()) {
+                getExecOperations().exec(spec -> {
+                    File graalUpdateExecutable = getExecutable(stagedGraalHome, "gu");
+                    if (!graalUpdateExecutable.isFile()) {
+                        throw new IllegalStateException(
+                                "Failed to find Graal update binary: " + graalUpdateExecutable);
+                    }
+                    spec.executable(graalUpdateExecutable.getAbsolutePath());
+                    spec.args("install", "native-image");
+                });
+            }
+
+            // the marker records which archive the distribution came from, and that it is complete
+            Files.write(
+                    stagedGraalHome.resolve(COMPLETION_MARKER), archiveChecksum.getBytes(StandardCharsets.UTF_8));
+            FileUtil.deleteRecursively(outputDir);
+            try {
+                Files.move(stagedGraalHome, outputDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(stagedGraalHome, outputDir);
+            }
+        } finally {
+            FileUtil.deleteRecursively(stagingDir);
         }
 
-        File nativeImageExecutable = getExecutable("native-image");
-        if (!nativeImageExecutable.isFile()) {
-            project.exec(spec -> {
-                File graalUpdateExecutable = getExecutable("gu");
-                if (!graalUpdateExecutable.isFile()) {
-                    throw new IllegalStateException("Failed to find Graal update binary: " + graalUpdateExecutable);
-                }
-                spec.executable(graalUpdateExecutable.getAbsolutePath());
-                spec.args("install", "native-image");
-            });
+        if (!keepArchive.get()) {
+            // the completion marker now stands in for the archive when deciding whether to download again
+            Files.deleteIfExists(inputArchiveFile.toPath());
+            Files.deleteIfExists(GraalDownloader.checksumFile(inputArchiveFile.toPath()));
         }
     }
 
+    private String stream(File inputArchiveFile, Path stagingDir) throws IOException {
+        Set<File> resolvedArtifacts = mavenArtifacts.getFiles();
+        List<URL> sources = GraalSources.order(downloadUrls.get(), resolvedArtifacts, offline.get(), getLogger());
+        int timeoutMillis = Math.toIntExact(TimeUnit.SECONDS.toMillis(downloadTimeoutSeconds.get()));
+        AtomicReference<String> archiveChecksum = new AtomicReference<>();
+        GraalSources.fetchFromFirst(
+                sources,
+                source -> {
+                    // a failed source may have left part of the distribution behind
+                    FileUtil.deleteRecursively(stagingDir);
+                    Files.createDirectories(stagingDir);
+                    boolean fromSidecar =
+                            checksumFromSidecar.get() && !GraalSources.isResolvedArtifact(source, resolvedArtifacts);
+                    getLogger().lifecycle("Downloading and extracting {}", source);
+                    archiveChecksum.set(GraalDownloader.stream(
+                            source,
+                            GraalDownloader.expectedChecksum(
+                                    source,
+                                    Optional.ofNullable(checksum.getOrNull()),
+                                    fromSidecar,
+                                    timeoutMillis),
+                            keepArchive.get() ? Optional.of(inputArchiveFile.toPath()) : Optional.empty(),
+                            timeoutMillis,
+                            in -> GraalArchiveExtractor.extract(in, inputArchiveFile.getName(), stagingDir)));
+                },
+                getLogger());
+        return archiveChecksum.get();
+    }
+
+    /**
+     * Returns whether a complete GraalVM distribution has been published at {@code graalHome}. Once it has, neither
+     * its archive nor any further download is needed.
+     */
+    static boolean isInstalled(Path graalHome) {
+        return Files.isRegularFile(graalHome.resolve(COMPLETION_MARKER));
+    }
+
+    /**
+     * Returns the SHA-256 of the archive the distribution at {@code graalHome} was installed from, if it was recorded.
+     */
+    static Optional<String> installedChecksum(Path graalHome) throws IOException {
+        Path marker = graalHome.resolve(COMPLETION_MARKER);
+        if (!Files.isRegularFile(marker)) {
+            return Optional.empty();
+        }
+        String checksum = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim();
+        return checksum.isEmpty() ? Optional.empty() : Optional.of(checksum);
+    }
+
+    /**
+     * Marks a distribution extracted by an older version of this plugin, which did not write completion markers, as
+     * installed if it is usable, and deletes it otherwise. Returns whether it was adopted.
+     */
+    private boolean adoptLegacyInstall(Path outputDir) throws IOException {
+        if (!Files.isDirectory(outputDir)) {
+            return false;
+        }
+        if (getExecutable(outputDir, "native-image").isFile()) {
+            getLogger().info("Adopting GraalVM distribution at {}", outputDir);
+            Files.write(outputDir.resolve(COMPLETION_MARKER), new byte[0]);
+            return true;
+        }
+        getLogger().lifecycle("Replacing incomplete GraalVM distribution at {}", outputDir);
+        FileUtil.deleteRecursively(outputDir);
+        return false;
+    }
+
+    private void deleteAbandonedStagingDirectories(Path versionedCacheDir) throws IOException {
+        // holding the lock means nobody else is extracting, so any staging directory was left by a killed build
+        try (DirectoryStream<Path> stagingDirs = Files.newDirectoryStream(versionedCacheDir, STAGING_PREFIX + "*")) {
+            for (Path stagingDir : stagingDirs) {
+                getLogger().info("Deleting abandoned extraction {}", stagingDir);
+                FileUtil.deleteRecursively(stagingDir);
+            }
+        }
+    }
+
+    /** Returns the executable {@code binaryName} of the GraalVM distribution at {@code graalHome}. */
     // has some overlap with BaseGraalCompileTask#getArchitectureSpecifiedBinaryPath()
-    private File getExecutable(String binaryName) {
+    static File getExecutable(Path graalHome, String binaryName) {
         String binaryExtension = "";
 
         if (Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS) {
@@ -116,13 +286,10 @@ public class ExtractGraalTask extends DefaultTask {
             }
         }
 
-        return cacheDir.get()
-                .resolve(Paths.get(graalVersion.get(), javaVersion.get(), graalDirectoryName.get()))
-                .resolve(getArchitectureSpecifiedBinaryPath(binaryName + binaryExtension))
-                .toFile();
+        return graalHome.resolve(getArchitectureSpecifiedBinaryPath(binaryName + binaryExtension)).toFile();
     }
 
-    private Path getArchitectureSpecifiedBinaryPath(String binaryName) {
+    private static Path getArchitectureSpecifiedBinaryPath(String binaryName) {
         switch (Platform.operatingSystem()) {
             case MAC:
                 return Paths.get("Contents", "Home", "bin", binaryName);
@@ -134,7 +301,11 @@ public class ExtractGraalTask extends DefaultTask {
         }
     }
 
-    @InputFile
+    /**
+     * Returns the downloaded archive. This is not an {@code @InputFile}, because a pipelined install never writes it;
+     * whether extraction runs at all is decided by the presence of the output directory.
+     */
+    @Internal
     public final Provider<RegularFile> getInputArchive() {
         return inputArchive;
     }
@@ -166,6 +337,130 @@ public class ExtractGraalTask extends DefaultTask {
         return outputDirectory;
     }
 
+    /**
+     * Returns the SHA-256 of the archive the distribution was installed from, see {@link #installedChecksum(Path)}.
+     * Derived from the output, so it is only read once this task has run.
+     */
+    @Internal
+    public final Provider<String> getInstalledChecksum() {
+        return outputDirectory.map(dir -> {
+            try {
+                return installedChecksum(dir.getAsFile().toPath()).orElse(null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Input
+    public final Provider<Boolean> getPipelinedInstall() {
+        return pipelinedInstall;
+    }
+
+    public final void setPipelinedInstall(Provider<Boolean> provider) {
+        pipelinedInstall.set(provider);
+    }
+
+    @Input
+    public final Provider<Boolean> getKeepArchive() {
+        return keepArchive;
+    }
+
+    public final void setKeepArchive(Provider<Boolean> provider) {
+        keepArchive.set(provider);
+    }
+
+    @Input
+    public final Provider<List<String>> getDownloadUrls() {
+        return downloadUrls;
+    }
+
+    public final void setDownloadUrls(Provider<List<String>> provider) {
+        downloadUrls.set(provider);
+    }
+
+    @Internal
+    public final FileCollection getMavenArtifacts() {
+        return mavenArtifacts;
+    }
+
+    public final void setMavenArtifacts(FileCollection files) {
+        mavenArtifacts.setFrom(files);
+    }
+
+    @Internal
+    public final Provider<Boolean> getOffline() {
+        return offline;
+    }
+
+    public final void setOffline(Provider<Boolean> provider) {
+        offline.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getDownloadTimeoutSeconds() {
+        return downloadTimeoutSeconds;
+    }
+
+    public final void setDownloadTimeoutSeconds(Provider<Integer> provider) {
+        downloadTimeoutSeconds.set(provider);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getChecksum() {
+        return checksum;
+    }
+
+    public final void setChecksum(Provider<String> provider) {
+        checksum.set(provider);
+    }
+
+    @Input
+    public final Provider<Boolean> getChecksumFromSidecar() {
+        return checksumFromSidecar;
+    }
+
+    public final void setChecksumFromSidecar(Provider<Boolean> provider) {
+        checksumFromSidecar.set(provider);
+    }
+
+    @Internal
+    public final Provider<Long> getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public final void setCacheMaxBytes(Provider<Long> provider) {
+        cacheMaxBytes.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getCacheMaxVersions() {
+        return cacheMaxVersions;
+    }
+
+    public final void setCacheMaxVersions(Provider<Integer> provider) {
+        cacheMaxVersions.set(provider);
+    }
+
+    @Internal
+    public final Provider<Integer> getCacheMaxUnusedDays() {
+        return cacheMaxUnusedDays;
+    }
+
+    public final void setCacheMaxUnusedDays(Provider<Integer> provider) {
+        cacheMaxUnusedDays.set(provider);
+    }
+
+    @Internal
+    public final Provider<GraalProvisioningService> getProvisioningService() {
+        return provisioningService;
+    }
+
+    public final void setProvisioningService(Provider<GraalProvisioningService> provider) {
+        provisioningService.set(provider);
+    }
+
     final void setCacheDir(Path value) {
         cacheDir.set(value);
     }
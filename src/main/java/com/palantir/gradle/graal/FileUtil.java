@@ -17,9 +17,15 @@
 package com.palantir.gradle.graal;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.util.AbstractSet;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.stream.Stream;
 
 public final class FileUtil {
     public static String getFirstFromDirectory(File directory, List<String> searchList) {
@@ -40,5 +46,17 @@ public final class FileUtil {
         return null;
     }
 
+    /** Deletes the given file or directory tree, without following symbolic links. */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path child : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(child);
+            }
+        }
+    }
+
     private FileUtil() {}
 }
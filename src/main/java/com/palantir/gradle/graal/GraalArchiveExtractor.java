@@ -0,0 +1,372 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts GraalVM distributions in a single streaming pass, without forking {@code tar}.
+ *
+ * <p>Only the subset of the tar format that GraalVM distributions use is supported: ustar and GNU headers, GNU long
+ * names and pax extended headers for paths, regular files, directories, symbolic links and hard links. File modes are
+ * preserved on file systems that support POSIX permissions, so executables stay executable.</p>
+ */
+final class GraalArchiveExtractor {
+    private static final int BLOCK_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final boolean POSIX =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private GraalArchiveExtractor() {}
+
+    /** Extracts the archive read from {@code in} into {@code targetDir}, using {@code archiveName} to pick a format. */
+    static void extract(InputStream in, String archiveName, Path targetDir) throws IOException {
+        if (archiveName.endsWith(".zip")) {
+            extractZip(in, targetDir);
+        } else if (archiveName.endsWith(".tar.gz") || archiveName.endsWith(".tgz")) {
+            extractTarGz(in, targetDir);
+        } else {
+            throw new IOException("Unsupported archive format: " + archiveName);
+        }
+    }
+
+    static void extractTarGz(InputStream in, Path targetDir) throws IOException {
+        // closed right away to release its inflater, but the caller may still read past the end of the archive
+        try (InputStream tar = new GZIPInputStream(new BufferedInputStream(unclosable(in), BUFFER_SIZE), BUFFER_SIZE)) {
+            extractTar(tar, targetDir);
+        }
+    }
+
+    private static void extractTar(InputStream tar, Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        Path realTargetDir = targetDir.toRealPath();
+        byte[] header = new byte[BLOCK_SIZE];
+        List<Runnable> directoryModes = new ArrayList<>();
+        String longName = null;
+        String longLinkName = null;
+
+        while (readBlock(tar, header)) {
+            if (isZeroBlock(header)) {
+                break;
+            }
+
+            char type = (char) header[156];
+            long size = parseNumber(header, 124, 12);
+            if (type == 'L' || type == 'K' || type == 'x' || type == 'g') {
+                byte[] data = readData(tar, size);
+                if (type == 'L') {
+                    longName = trimNul(new String(data, StandardCharsets.UTF_8));
+                } else if (type == 'K') {
+                    longLinkName = trimNul(new String(data, StandardCharsets.UTF_8));
+                } else if (type == 'x') {
+                    longName = paxValue(data, "path", longName);
+                    longLinkName = paxValue(data, "linkpath", longLinkName);
+                }
+                continue;
+            }
+
+            String name = longName != null ? longName : headerName(header);
+            String linkName = longLinkName != null ? longLinkName : parseString(header, 157, 100);
+            longName = null;
+            longLinkName = null;
+            int mode = (int) parseNumber(header, 100, 8);
+            long mtime = parseNumber(header, 136, 12);
+
+            Path path = resolve(targetDir, name);
+            switch (type) {
+                case '5':
+                    createDirectories(realTargetDir, path);
+                    directoryModes.add(() -> setMode(path, mode));
+                    skipData(tar, size);
+                    break;
+                case '2':
+                    createDirectories(realTargetDir, path.getParent());
+                    Files.deleteIfExists(path);
+                    Files.createSymbolicLink(path, symbolicLinkTarget(realTargetDir, path, linkName));
+                    skipData(tar, size);
+                    break;
+                case '1':
+                    createDirectories(realTargetDir, path.getParent());
+                    Files.deleteIfExists(path);
+                    Path linkSource = resolve(targetDir, linkName);
+                    checkContained(realTargetDir, linkSource.toRealPath(), linkName);
+                    Files.createLink(path, linkSource);
+                    skipData(tar, size);
+                    break;
+                case '0':
+                case '\0':
+                case '7':
+                    createDirectories(realTargetDir, path.getParent());
+                    // never write through a link an earlier entry put in the file's place
+                    Files.deleteIfExists(path);
+                    writeFile(tar, path, size);
+                    skipPadding(tar, size);
+                    setMode(path, mode);
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(mtime * 1000));
+                    break;
+                default:
+                    // device nodes and fifos have no business in a JDK distribution
+                    skipData(tar, size);
+                    break;
+            }
+        }
+
+        // directories get their modes last, in case one of them is not writable
+        for (int i = directoryModes.size() - 1; i >= 0; i--) {
+            directoryModes.get(i).run();
+        }
+    }
+
+    static void extractZip(InputStream in, Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        Path realTargetDir = targetDir.toRealPath();
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(unclosable(in), BUFFER_SIZE))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                Path path = resolve(targetDir, entry.getName());
+                if (entry.isDirectory()) {
+                    createDirectories(realTargetDir, path);
+                } else {
+                    createDirectories(realTargetDir, path.getParent());
+                    Files.copy(zip, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the target of a symbolic link at {@code path}, if the link stays within the extracted tree. The target
+     * is resolved from the real location of the link, so that links to {@code .} or to other links cannot be chained
+     * to climb out of the tree.
+     */
+    private static Path symbolicLinkTarget(Path realTargetDir, Path path, String linkName) throws IOException {
+        Path target = Paths.get(linkName);
+        if (target.isAbsolute()) {
+            throw new IOException("Archive entry " + path + " links to the absolute path " + linkName);
+        }
+        checkContained(
+                realTargetDir, path.getParent().toRealPath().resolve(target).normalize(), path + " -> " + linkName);
+        return target;
+    }
+
+    /**
+     * Creates {@code directory} and its parents, after checking that the deepest of them that already exists really
+     * is within the extracted tree, and not reached through a symbolic link that leads out of it.
+     */
+    private static void createDirectories(Path realTargetDir, Path directory) throws IOException {
+        Path existing = directory;
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        checkContained(realTargetDir, existing.toRealPath(), directory.toString());
+        Files.createDirectories(directory);
+        checkContained(realTargetDir, directory.toRealPath(), directory.toString());
+    }
+
+    private static void checkContained(Path realTargetDir, Path realPath, String name) throws IOException {
+        if (!realPath.startsWith(realTargetDir)) {
+            throw new IOException("Archive entry " + name + " would be extracted outside of " + realTargetDir);
+        }
+    }
+
+    /** Wraps {@code in} so that closing a decompressing stream around it leaves it open for the caller. */
+    private static InputStream unclosable(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {}
+        };
+    }
+
+    private static Path resolve(Path targetDir, String name) throws IOException {
+        Path path = targetDir.resolve(name).normalize();
+        if (!path.startsWith(targetDir)) {
+            throw new IOException("Archive entry " + name + " would be extracted outside of " + targetDir);
+        }
+        return path;
+    }
+
+    private static void writeFile(InputStream tar, Path path, long size) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(size, 1))];
+        long remaining = size;
+        try (OutputStream out = Files.newOutputStream(path)) {
+            while (remaining > 0) {
+                int read = tar.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Unexpected end of archive while extracting " + path);
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void setMode(Path path, int mode) {
+        if (!POSIX) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] bits = PosixFilePermission.values(); // OWNER_READ ... OTHERS_EXECUTE, high bit first
+        for (int i = 0; i < bits.length; i++) {
+            if ((mode & (1 << (bits.length - 1 - i))) != 0) {
+                permissions.add(bits[i]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to set permissions on " + path, e);
+        }
+    }
+
+    private static String headerName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        String prefix = isUstar(header) ? parseString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static boolean isUstar(byte[] header) {
+        return new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")
+                // the GNU format puts other data where ustar has its prefix
+                && header[262] == 0;
+    }
+
+    private static String paxValue(byte[] records, String key, String fallback) {
+        // each record is "<length> <key>=<value>\n", where length counts bytes of the whole record
+        int position = 0;
+        while (position < records.length) {
+            int space = position;
+            while (space < records.length && records[space] != ' ') {
+                space++;
+            }
+            if (space == records.length) {
+                break;
+            }
+            int length = Integer.parseInt(new String(records, position, space - position, StandardCharsets.US_ASCII));
+            if (length <= 0) {
+                break;
+            }
+            int end = Math.min(records.length, position + length - 1);
+            String record = new String(records, space + 1, end - space - 1, StandardCharsets.UTF_8);
+            if (record.startsWith(key + "=")) {
+                return record.substring(key.length() + 1);
+            }
+            position += length;
+        }
+        return fallback;
+    }
+
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            // GNU base-256 encoding, used for sizes that do not fit in octal
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            }
+            return value;
+        }
+        String octal = parseString(header, offset, length).trim();
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    private static String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul == -1 ? value : value.substring(0, nul);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = in.readNBytes(block, 0, BLOCK_SIZE);
+        if (read == 0) {
+            return false;
+        }
+        if (read != BLOCK_SIZE) {
+            throw new EOFException("Truncated tar header");
+        }
+        return true;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        byte[] data = in.readNBytes((int) size);
+        if (data.length != size) {
+            throw new EOFException("Truncated tar entry");
+        }
+        skipPadding(in, size);
+        return data;
+    }
+
+    private static void skipData(InputStream in, long size) throws IOException {
+        skipFully(in, size);
+        skipPadding(in, size);
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        long remainder = size % BLOCK_SIZE;
+        if (remainder != 0) {
+            skipFully(in, BLOCK_SIZE - remainder);
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of archive");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
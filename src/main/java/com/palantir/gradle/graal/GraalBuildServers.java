@@ -0,0 +1,266 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Keeps track of the native-image build servers that compile tasks run their builds on, and shuts down those that are
+ * no longer worth keeping once a build finishes.
+ *
+ * <p>GraalVM 19 and 20 can keep the native-image builder running as a server between builds, so later builds skip
+ * starting and warming up its JVM. Servers outlive the Gradle build that started them, so each session, one per
+ * GraalVM version and Java version, is recorded in the plugin's cache directory with its executable, the heap it was
+ * started with, and when it was last used. When a build finishes, sessions that have been idle for longer than the
+ * idle timeout are shut down, and then the least recently used ones until the heaps of those left fit into the memory
+ * cap. Builds on one session are run one at a time.</p>
+ */
+public abstract class GraalBuildServers implements BuildService<GraalBuildServers.Params>, AutoCloseable {
+    static final String NAME = "graalBuildServers";
+    static final String SESSIONS_DIR = "build-servers";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final Logger log = Logging.getLogger(GraalBuildServers.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ConcurrentMap<String, Lock> sessions = new ConcurrentHashMap<>();
+
+    /** Returns whether native-image of {@code graalVersion} has a build server, which was removed in GraalVM 21. */
+    static boolean isSupported(String graalVersion) {
+        return GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion, 19, 0)
+                && !GraalVersionUtil.isGraalVersionGreaterOrEqualThan(graalVersion, 21, 0);
+    }
+
+    /** Returns the name of the build server session shared by all builds with a GraalVM version and Java version. */
+    static String session(String graalVersion, String javaVersion) {
+        return ("gradle-graal-" + graalVersion + "-java" + javaVersion).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Blocks until no other build of this Gradle build runs on {@code session}, and records that it is used by
+     * {@code executable} with {@code memoryMegabytes} of heap. The returned lease is closed once the build is done.
+     */
+    final Lease use(String session, String executable, long memoryMegabytes) throws IOException {
+        Lock lock = sessions.computeIfAbsent(session, _session -> new ReentrantLock());
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for build server session " + session, e);
+        }
+        GraalCacheLock serverLock = null;
+        try {
+            Path marker = sessionsDir().resolve(session);
+            // held shared for the whole build, so that other Gradle builds do not shut the server down meanwhile
+            serverLock = GraalCacheLock.acquireShared(lockFile(marker), log);
+            Properties properties = new Properties();
+            properties.setProperty("executable", executable);
+            properties.setProperty("memoryMegabytes", Long.toString(memoryMegabytes));
+            try (OutputStream out = Files.newOutputStream(marker)) {
+                properties.store(out, null);
+            }
+            GraalCacheLock heldServerLock = serverLock;
+            return () -> {
+                try (GraalCacheLock _serverLock = heldServerLock) {
+                    // idle time counts from the end of the last build
+                    Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (serverLock != null) {
+                    serverLock.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public final void close() throws IOException {
+        Path sessionsDir = getParameters().getCacheDir().get().toPath().resolve(SESSIONS_DIR);
+        if (!Files.isDirectory(sessionsDir)) {
+            return;
+        }
+        List<Session> known = new ArrayList<>();
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(
+                sessionsDir, path -> Files.isRegularFile(path) && !path.toString().endsWith(LOCK_SUFFIX))) {
+            for (Path marker : markers) {
+                known.add(Session.read(marker));
+            }
+        }
+        for (Session session : retire(
+                known,
+                Instant.now().minus(Duration.ofMinutes(getParameters().getIdleMinutes().get())),
+                getParameters().getMaxMemoryMegabytes().get())) {
+            shutdown(session);
+        }
+    }
+
+    /**
+     * Returns the sessions to shut down: those last used before {@code idleCutoff}, then the least recently used until
+     * the heaps of the others add up to at most {@code maxMemoryMegabytes}.
+     */
+    static List<Session> retire(List<Session> sessions, Instant idleCutoff, long maxMemoryMegabytes) {
+        List<Session> byRecentUse = new ArrayList<>(sessions);
+        byRecentUse.sort(Comparator.comparing((Session session) -> session.lastUsed).reversed());
+        List<Session> retired = new ArrayList<>();
+        long keptMemoryMegabytes = 0;
+        for (Session session : byRecentUse) {
+            if (session.lastUsed.isBefore(idleCutoff)
+                    || keptMemoryMegabytes + session.memoryMegabytes > maxMemoryMegabytes) {
+                retired.add(session);
+            } else {
+                keptMemoryMegabytes += session.memoryMegabytes;
+            }
+        }
+        return retired;
+    }
+
+    private static void shutdown(Session session) throws IOException {
+        Optional<GraalCacheLock> lock = GraalCacheLock.tryAcquire(lockFile(session.marker));
+        if (!lock.isPresent()) {
+            log.info("Not shutting down native-image build server {}, another build is using it", session.name);
+            return;
+        }
+        try (GraalCacheLock _lock = lock.get()) {
+            stop(session);
+            Files.deleteIfExists(session.marker);
+        }
+    }
+
+    private static void stop(Session session) throws IOException {
+        // a server whose GraalVM has been evicted from the cache has gone with it
+        if (new File(session.executable).isFile()) {
+            log.lifecycle("Shutting down native-image build server {}", session.name);
+            Process process = new ProcessBuilder(
+                            session.executable, "--server-shutdown", "--server-session=" + session.name)
+                    .redirectErrorStream(true)
+                    .start();
+            try (InputStream in = process.getInputStream()) {
+                while (in.read() != -1) {
+                    // the output is of no interest, but must not fill the pipe
+                }
+                if (!process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+                return;
+            }
+            if (process.exitValue() != 0) {
+                // most likely the server has already stopped on its own
+                log.info("Shutting down build server {} failed with exit code {}", session.name, process.exitValue());
+            }
+        }
+    }
+
+    private static Path lockFile(Path marker) {
+        return marker.resolveSibling(marker.getFileName() + LOCK_SUFFIX);
+    }
+
+    private Path sessionsDir() throws IOException {
+        Path sessionsDir = getParameters().getCacheDir().get().toPath().resolve(SESSIONS_DIR);
+        Files.createDirectories(sessionsDir);
+        return sessionsDir;
+    }
+
+    /** A build on a session, like {@link AutoCloseable} but only allowed to fail with I/O errors. */
+    interface Lease extends AutoCloseable {
+        @Override
+        void close() throws IOException;
+    }
+
+    static final class Session {
+        private final Path marker;
+        private final String name;
+        private final String executable;
+        private final long memoryMegabytes;
+        private final Instant lastUsed;
+
+        Session(Path marker, String executable, long memoryMegabytes, Instant lastUsed) {
+            this.marker = marker;
+            this.name = marker.getFileName().toString();
+            this.executable = executable;
+            this.memoryMegabytes = memoryMegabytes;
+            this.lastUsed = lastUsed;
+        }
+
+        static Session read(Path marker) throws IOException {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(marker)) {
+                properties.load(in);
+            }
+            long memoryMegabytes;
+            try {
+                memoryMegabytes = Long.parseLong(properties.getProperty("memoryMegabytes", "0"));
+            } catch (NumberFormatException e) {
+                memoryMegabytes = 0;
+            }
+            return new Session(
+                    marker,
+                    properties.getProperty("executable", ""),
+                    memoryMegabytes,
+                    Files.getLastModifiedTime(marker).toInstant());
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    public interface Params extends BuildServiceParameters {
+        /** The plugin's cache directory, which records the sessions. */
+        Property<File> getCacheDir();
+
+        /** How long a build server may go unused before a finishing build shuts it down. */
+        Property<Integer> getIdleMinutes();
+
+        /** The most heap, in megabytes, that the build servers kept running between builds may have together. */
+        Property<Long> getMaxMemoryMegabytes();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Evicts GraalVM versions from the shared tool cache.
+ *
+ * <p>Each {@code cacheDir/graalVersion/javaVersion} directory, holding an archive and its extracted distribution, is
+ * one entry. Entries are ranked by the time they were last used to compile something, and the least recently used
+ * ones are evicted first. An entry is only deleted if its {@link GraalCacheLock} can be taken exclusively right away,
+ * so versions that another build is installing or running are skipped rather than waited for.</p>
+ */
+final class GraalCacheCleaner {
+    private static final String LAST_USED = ".last-used";
+
+    private final Path cacheDir;
+    private final Logger logger;
+
+    GraalCacheCleaner(Path cacheDir, Logger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+    }
+
+    /** Records that the entry at {@code cacheDir/graalVersion/javaVersion} is being used right now. */
+    static void recordUse(Path cacheDir, String graalVersion, String javaVersion, Logger logger) {
+        Path entry = cacheDir.resolve(graalVersion).resolve(javaVersion);
+        if (!Files.isDirectory(entry)) {
+            return;
+        }
+        try {
+            Path marker = entry.resolve(LAST_USED);
+            if (!Files.exists(marker)) {
+                Files.createFile(marker);
+            }
+            Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            // eviction falls back to the directory's own timestamp, which is no reason to fail a build
+            logger.debug("Failed to record use of {}", entry, e);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until at most {@code maxVersions} remain, their total size is at most
+     * {@code maxBytes}, and none has gone unused for longer than {@code maxUnused}. The entry for
+     * {@code keepGraalVersion}/{@code keepJavaVersion} counts towards the limits but is never evicted.
+     */
+    void clean(
+            Optional<Long> maxBytes,
+            Optional<Integer> maxVersions,
+            Optional<Duration> maxUnused,
+            String keepGraalVersion,
+            String keepJavaVersion)
+            throws IOException {
+        List<Entry> entries = entries();
+        // the version being kept is the one in use right now, so it ranks as the most recently used
+        entries.sort(Comparator.comparing((Entry entry) -> !entry.is(keepGraalVersion, keepJavaVersion))
+                .thenComparing(entry -> entry.lastUsed, Comparator.reverseOrder()));
+        Instant unusedCutoff = maxUnused.map(Instant.now()::minus).orElse(Instant.MIN);
+
+        long retainedBytes = 0;
+        int retainedVersions = 0;
+        for (Entry entry : entries) {
+            boolean evict = !entry.is(keepGraalVersion, keepJavaVersion)
+                    && (entry.lastUsed.isBefore(unusedCutoff)
+                            || retainedVersions >= maxVersions.orElse(Integer.MAX_VALUE)
+                            || retainedBytes + entry.sizeBytes > maxBytes.orElse(Long.MAX_VALUE));
+            if (evict && evict(entry)) {
+                continue;
+            }
+            retainedBytes += entry.sizeBytes;
+            retainedVersions++;
+        }
+    }
+
+    private boolean evict(Entry entry) throws IOException {
+        Path lockFile = GraalCacheLock.lockFile(cacheDir, entry.graalVersion, entry.javaVersion);
+        Optional<GraalCacheLock> lock = GraalCacheLock.tryAcquire(lockFile);
+        if (!lock.isPresent()) {
+            logger.lifecycle(
+                    "Not evicting GraalVM {} (Java {}) from the cache, it is in use",
+                    entry.graalVersion,
+                    entry.javaVersion);
+            return false;
+        }
+        try (GraalCacheLock _lock = lock.get()) {
+            logger.lifecycle(
+                    "Evicting GraalVM {} (Java {}) from the cache, freeing {} MB",
+                    entry.graalVersion,
+                    entry.javaVersion,
+                    entry.sizeBytes / (1000 * 1000));
+            FileUtil.deleteRecursively(entry.path);
+        }
+        // the lock file stays behind: deleting it could let two processes lock different files of the same name
+        return true;
+    }
+
+    private List<Entry> entries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(cacheDir)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> versions = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+            for (Path version : versions) {
+                try (DirectoryStream<Path> javaVersions = Files.newDirectoryStream(version, Files::isDirectory)) {
+                    for (Path javaVersion : javaVersions) {
+                        entries.add(new Entry(javaVersion, lastUsed(javaVersion), size(javaVersion)));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static Instant lastUsed(Path entry) throws IOException {
+        Path marker = entry.resolve(LAST_USED);
+        return Files.getLastModifiedTime(Files.exists(marker) ? marker : entry).toInstant();
+    }
+
+    private static long size(Path entry) throws IOException {
+        try (Stream<Path> files = Files.walk(entry)) {
+            return files.mapToLong(file -> {
+                        try {
+                            BasicFileAttributes attributes = Files.readAttributes(
+                                    file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                            return attributes.isRegularFile() ? attributes.size() : 0;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class Entry {
+        private final Path path;
+        private final String graalVersion;
+        private final String javaVersion;
+        private final Instant lastUsed;
+        private final long sizeBytes;
+
+        Entry(Path path, Instant lastUsed, long sizeBytes) {
+            this.path = path;
+            this.graalVersion = path.getParent().getFileName().toString();
+            this.javaVersion = path.getFileName().toString();
+            this.lastUsed = lastUsed;
+            this.sizeBytes = sizeBytes;
+        }
+
+        boolean is(String otherGraalVersion, String otherJavaVersion) {
+            return graalVersion.equals(otherGraalVersion) && javaVersion.equals(otherJavaVersion);
+        }
+    }
+}
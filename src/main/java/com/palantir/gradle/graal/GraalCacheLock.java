@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.gradle.api.logging.Logger;
+
+/**
+ * A lock on one GraalVM version in the shared tool cache. Installing or evicting a version takes it exclusively, and
+ * running a version's tools takes it shared, so a version is never deleted while it is in use.
+ *
+ * <p>File locks are held on behalf of the whole JVM, and the JVM refuses to take overlapping ones twice, so tasks
+ * within one Gradle daemon first coordinate on an in-memory read-write lock, and all threads holding it shared share
+ * a single shared file lock. The file lock then guards against other processes. Because the operating system releases
+ * file locks when a process dies, a killed build never leaves the cache locked.</p>
+ */
+final class GraalCacheLock implements AutoCloseable {
+    private static final ConcurrentMap<Path, JvmLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Releaser releaser;
+
+    private GraalCacheLock(Releaser releaser) {
+        this.releaser = releaser;
+    }
+
+    /** Returns the lock file guarding {@code cacheDir/graalVersion/javaVersion}. */
+    static Path lockFile(Path cacheDir, String graalVersion, String javaVersion) {
+        return cacheDir.resolve(graalVersion).resolve(javaVersion + ".lock");
+    }
+
+    /** Blocks until this thread holds the lock exclusively. */
+    static GraalCacheLock acquire(Path lockFile, Logger logger) throws IOException {
+        Lock threadLock = jvmLock(lockFile).threads.writeLock();
+        lockThreads(threadLock, lockFile, logger);
+        try {
+            FileLock fileLock = lockFile(lockFile, false, logger);
+            return new GraalCacheLock(() -> {
+                try {
+                    fileLock.acquiredBy().close();
+                } finally {
+                    threadLock.unlock();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    /** Blocks until this thread holds the lock shared with other users of the same GraalVM version. */
+    static GraalCacheLock acquireShared(Path lockFile, Logger logger) throws IOException {
+        JvmLock jvmLock = jvmLock(lockFile);
+        Lock threadLock = jvmLock.threads.readLock();
+        lockThreads(threadLock, lockFile, logger);
+        try {
+            synchronized (jvmLock) {
+                if (jvmLock.sharedHolders == 0) {
+                    jvmLock.sharedFileLock = lockFile(lockFile, true, logger);
+                }
+                jvmLock.sharedHolders++;
+            }
+            return new GraalCacheLock(() -> {
+                try {
+                    synchronized (jvmLock) {
+                        jvmLock.sharedHolders--;
+                        if (jvmLock.sharedHolders == 0) {
+                            jvmLock.sharedFileLock.acquiredBy().close();
+                            jvmLock.sharedFileLock = null;
+                        }
+                    }
+                } finally {
+                    threadLock.unlock();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    /** Takes the lock exclusively if nobody, in this process or another, holds it right now. */
+    static Optional<GraalCacheLock> tryAcquire(Path lockFile) throws IOException {
+        Lock threadLock = jvmLock(lockFile).threads.writeLock();
+        if (!threadLock.tryLock()) {
+            return Optional.empty();
+        }
+        try {
+            Files.createDirectories(lockFile.getParent());
+            FileChannel channel = open(lockFile);
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // this thread already holds it further up the stack
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                channel.close();
+                threadLock.unlock();
+                return Optional.empty();
+            }
+            return Optional.of(new GraalCacheLock(() -> {
+                try {
+                    channel.close();
+                } finally {
+                    threadLock.unlock();
+                }
+            }));
+        } catch (IOException | RuntimeException e) {
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaser.release();
+    }
+
+    private static JvmLock jvmLock(Path lockFile) {
+        return JVM_LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), _path -> new JvmLock());
+    }
+
+    private static void lockThreads(Lock threadLock, Path lockFile, Logger logger) throws IOException {
+        if (threadLock.tryLock()) {
+            return;
+        }
+        logger.lifecycle("Waiting for another task to release the GraalVM cache lock ({})", lockFile);
+        try {
+            threadLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + lockFile, e);
+        }
+    }
+
+    private static FileLock lockFile(Path lockFile, boolean shared, Logger logger) throws IOException {
+        Files.createDirectories(lockFile.getParent());
+        FileChannel channel = open(lockFile);
+        try {
+            FileLock fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (fileLock == null) {
+                logger.lifecycle("Waiting for another process to release the GraalVM cache lock ({})", lockFile);
+                fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            }
+            return fileLock;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static FileChannel open(Path lockFile) throws IOException {
+        // shared locks need a readable channel, exclusive ones a writable one
+        return FileChannel.open(
+                lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** The state of one lock file within this JVM. */
+    private static final class JvmLock {
+        private final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+        private int sharedHolders;
+        private FileLock sharedFileLock;
+    }
+
+    private interface Releaser {
+        void release() throws IOException;
+    }
+}
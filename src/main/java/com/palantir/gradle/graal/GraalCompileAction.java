@@ -0,0 +1,149 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.inject.Inject;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Runs one native-image compilation as a unit of work, so that compile tasks of the same project can run in parallel,
+ * within the build's {@link GraalResourceBudget}.
+ */
+public abstract class GraalCompileAction implements WorkAction<GraalCompileAction.Params> {
+    static final String BUILD_REPORT = "build-report";
+    private static final Logger log = Logging.getLogger(GraalCompileAction.class);
+
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    @Override
+    public final void execute() {
+        Params params = getParameters();
+        File outputFile = params.getOutputFile().get().getAsFile();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long totalMillis;
+        try (GraalResourceBudget.Reservation _reservation = params.getResourceBudget()
+                        .get()
+                        .reserve(params.getMemoryMegabytes().get(), params.getParallelism().get(), log);
+                GraalCacheLock _lock =
+                        GraalCacheLock.acquireShared(params.getLockFile().get().getAsFile().toPath(), log);
+                GraalBuildServers.Lease _lease = useBuildServer(params)) {
+            long startNanos = System.nanoTime();
+            getExecOperations().exec(spec -> {
+                spec.commandLine(params.getCommandLine().get());
+                // still shown as it happens, and kept to be parsed into the build report
+                spec.setStandardOutput(new TeeOutputStream(System.out, output));
+            });
+            totalMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.warn("{} ({} MB)", params.getCompletionMessage().get(), outputFile.length() / (1000 * 1000));
+
+        Path reportsDir = params.getReportsDirectory().get().getAsFile().toPath();
+        NativeImageBuildReport report = NativeImageBuildReport.parse(
+                new String(output.toByteArray(), StandardCharsets.UTF_8), outputFile.length(), totalMillis);
+        try {
+            report.writeJson(reportsDir.resolve(BUILD_REPORT + ".json"));
+            report.writeCsv(reportsDir.resolve(BUILD_REPORT + ".csv"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Build report written to {}", reportsDir);
+    }
+
+    private static GraalBuildServers.Lease useBuildServer(Params params) throws IOException {
+        if (!params.getBuildServerSession().isPresent()) {
+            return () -> {};
+        }
+        return params.getBuildServers()
+                .get()
+                .use(
+                        params.getBuildServerSession().get(),
+                        params.getBuildServerExecutable().get(),
+                        params.getMemoryMegabytes().get());
+    }
+
+    public interface Params extends WorkParameters {
+        ListProperty<String> getCommandLine();
+
+        RegularFileProperty getLockFile();
+
+        RegularFileProperty getOutputFile();
+
+        Property<String> getCompletionMessage();
+
+        Property<GraalResourceBudget> getResourceBudget();
+
+        Property<Long> getMemoryMegabytes();
+
+        Property<Integer> getParallelism();
+
+        DirectoryProperty getReportsDirectory();
+
+        /** The build server session native-image runs the build on, absent to run it in a process of its own. */
+        Property<String> getBuildServerSession();
+
+        /** The native-image executable, which is also what shuts the build server down. */
+        Property<String> getBuildServerExecutable();
+
+        Property<GraalBuildServers> getBuildServers();
+    }
+
+    private static final class TeeOutputStream extends OutputStream {
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            first.write(value);
+            second.write(value);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            first.write(bytes, offset, length);
+            second.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+    }
+}
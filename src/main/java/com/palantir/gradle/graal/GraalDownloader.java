@@ -0,0 +1,527 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import com.palantir.gradle.graal.DownloadJournal.Range;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Downloads a single file, fetching byte ranges over several connections in parallel when the server supports it.
+ *
+ * <p>The first request asks for a single chunk only. A {@code 206 Partial Content} answer tells us both that ranges
+ * are supported and how large the file is, so the remaining chunks are fetched concurrently and written into a
+ * preallocated file with positional writes. Any other successful answer is streamed to disk as-is, which means
+ * servers without range support cost exactly one request, as before.</p>
+ *
+ * <p>Bytes are written to a {@code .part} file next to the target, and every finished range is recorded in a
+ * {@link DownloadJournal}. An interrupted download therefore resumes with the ranges it is missing, and the target
+ * only ever appears, through an atomic rename, once it is complete.</p>
+ */
+final class GraalDownloader {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int connections;
+    private final long chunkSize;
+    private final int timeoutMillis;
+    private final Logger logger;
+
+    GraalDownloader(int connections, long chunkSize, int timeoutMillis, Logger logger) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("downloadConnections must be at least 1, was " + connections);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("downloadChunkSize must be at least 1, was " + chunkSize);
+        }
+        if (timeoutMillis < 1) {
+            // a timeout of zero would make a stalled server block the build forever
+            throw new IllegalArgumentException("The download timeout must be positive, was " + timeoutMillis + " ms");
+        }
+        this.connections = connections;
+        this.chunkSize = chunkSize;
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+    }
+
+    static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    static Path journalFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part.ranges");
+    }
+
+    static Path checksumFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".sha256");
+    }
+
+    /**
+     * Downloads {@code url} to {@code target} and returns the SHA-256 of its contents, which is also recorded in
+     * {@link #checksumFile(Path)}.
+     *
+     * <p>The digest is computed while the download is in progress. If it does not match {@code expectedSha256}, the
+     * partial download is discarded and the target is left untouched.</p>
+     */
+    String download(URL url, Path target, Optional<String> expectedSha256) throws IOException {
+        Path part = partFile(target);
+        DownloadJournal journal = DownloadJournal.load(journalFile(target));
+        MessageDigest digest = sha256();
+
+        if (!isHttp(url)) {
+            try (InputStream in = open(url, timeoutMillis).getInputStream()) {
+                copy(in, part, digest);
+            }
+        } else if (!downloadHttp(url, part, journal, digest)) {
+            // the remote file changed since the journal was written, so fetch it from scratch
+            journal = DownloadJournal.load(journalFile(target));
+            digest.reset();
+            downloadHttp(url, part, journal, digest);
+        }
+
+        String actualSha256 = toHex(digest.digest());
+        if (expectedSha256.isPresent() && !expectedSha256.get().equalsIgnoreCase(actualSha256)) {
+            journal.delete();
+            Files.deleteIfExists(part);
+            throw new IOException("Checksum mismatch for " + url + ": expected SHA-256 " + expectedSha256.get()
+                    + " but downloaded " + actualSha256);
+        }
+
+        // record the digest before publishing the archive, so an archive is never present without its digest
+        Files.write(checksumFile(target), actualSha256.getBytes(StandardCharsets.UTF_8));
+        journal.delete();
+        moveAtomically(part, target);
+        return actualSha256;
+    }
+
+    /**
+     * Streams {@code url} straight into {@code consumer} without writing it to disk first, and returns the SHA-256 of
+     * everything that was read.
+     *
+     * <p>The stream is read over a single connection, since the consumer needs the bytes in order. If
+     * {@code keptArchive} is present the bytes are also written there, and published with their digest only once the
+     * digest has been verified. A mismatch with {@code expectedSha256} fails after the consumer has run, so callers
+     * must only publish what the consumer produced once this method returns.</p>
+     */
+    static String stream(
+            URL url,
+            Optional<String> expectedSha256,
+            Optional<Path> keptArchive,
+            int timeoutMillis,
+            StreamConsumer consumer)
+            throws IOException {
+        MessageDigest digest = sha256();
+        URLConnection connection = open(url, timeoutMillis);
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Failed to download " + url + ": HTTP " + code);
+            }
+        }
+
+        Optional<Path> part = keptArchive.map(GraalDownloader::partFile);
+        if (keptArchive.isPresent()) {
+            // a journal left by an interrupted ranged download would not describe the part file written here
+            Files.deleteIfExists(journalFile(keptArchive.get()));
+        }
+        try (InputStream body = connection.getInputStream();
+                OutputStream copy =
+                        part.isPresent() ? Files.newOutputStream(part.get()) : OutputStream.nullOutputStream();
+                // the tee wraps the digest, so bytes the consumer skips over are still hashed
+                InputStream in = new TeeInputStream(new DigestInputStream(body, digest), copy)) {
+            consumer.accept(in);
+            // archives may carry padding after their end marker that the consumer has no reason to read
+            in.transferTo(OutputStream.nullOutputStream());
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+
+        String actualSha256 = toHex(digest.digest());
+        if (expectedSha256.isPresent() && !expectedSha256.get().equalsIgnoreCase(actualSha256)) {
+            if (part.isPresent()) {
+                Files.deleteIfExists(part.get());
+            }
+            throw new IOException("Checksum mismatch for " + url + ": expected SHA-256 " + expectedSha256.get()
+                    + " but downloaded " + actualSha256);
+        }
+        if (keptArchive.isPresent()) {
+            Files.write(checksumFile(keptArchive.get()), actualSha256.getBytes(StandardCharsets.UTF_8));
+            moveAtomically(part.get(), keptArchive.get());
+        }
+        return actualSha256;
+    }
+
+    /**
+     * Returns the SHA-256 an archive downloaded from {@code archiveUrl} is expected to have: the configured checksum if
+     * there is one, otherwise the one published in the {@code .sha256} sidecar if {@code fromSidecar} is set.
+     */
+    static Optional<String> expectedChecksum(
+            URL archiveUrl, Optional<String> configured, boolean fromSidecar, int timeoutMillis) throws IOException {
+        if (configured.isPresent()) {
+            return Optional.of(configured.get().trim());
+        }
+        if (!fromSidecar) {
+            return Optional.empty();
+        }
+        try (InputStream in = open(new URL(archiveUrl.toString() + ".sha256"), timeoutMillis).getInputStream()) {
+            // sidecars are either just the digest or in sha256sum's "<digest>  <filename>" format
+            String sidecar = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            return Optional.of(sidecar.split("\\s+", -1)[0]);
+        }
+    }
+
+    /** Returns false if the journal no longer matches the remote file and the download has to start over. */
+    private boolean downloadHttp(URL url, Path part, DownloadJournal journal, MessageDigest digest)
+            throws IOException {
+        boolean resuming = journal.isResumable() && Files.isRegularFile(part);
+        List<Range> missing = resuming
+                ? journal.missing(chunkSize)
+                : Collections.singletonList(new Range(0, chunkSize - 1));
+        if (missing.isEmpty()) {
+            // every range made it to disk, the previous run just didn't get to publish the archive
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+                hash(channel, 0, journal.getLength(), digest);
+            }
+            return true;
+        }
+
+        Range probe = missing.get(0);
+        HttpURLConnection first = openRange(url, probe, timeoutMillis);
+        if (resuming && !journal.getValidator().isEmpty()) {
+            // if the file changed since the journal was written, the server answers with the whole new file instead
+            first.setRequestProperty("If-Range", journal.getValidator());
+        }
+        try {
+            int code = first.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                long totalLength = parseTotalLength(first.getHeaderField("Content-Range"));
+                if (totalLength >= 0) {
+                    if (!resuming) {
+                        journal.start(totalLength, validator(first));
+                        missing = journal.missing(chunkSize);
+                    } else if (totalLength != journal.getLength()) {
+                        logger.info("{} changed since the last partial download, starting over", url);
+                        journal.delete();
+                        Files.deleteIfExists(part);
+                        return false;
+                    } else {
+                        logger.lifecycle("Resuming download of {}", url);
+                    }
+                    downloadRanges(url, first, missing, totalLength, part, journal, !resuming, digest);
+                    return true;
+                }
+                // the server did not tell us the full length, so there's nothing to split; start over without ranges
+                first.disconnect();
+                first = (HttpURLConnection) open(url, timeoutMillis);
+                code = first.getResponseCode();
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Failed to download " + url + ": HTTP " + code);
+            }
+            logger.info("{} does not support range requests, downloading over a single connection", url);
+            journal.delete();
+            try (InputStream in = first.getInputStream()) {
+                copy(in, part, digest);
+            }
+            return true;
+        } finally {
+            first.disconnect();
+        }
+    }
+
+    private void downloadRanges(
+            URL url,
+            HttpURLConnection first,
+            List<Range> missing,
+            long totalLength,
+            Path part,
+            DownloadJournal journal,
+            boolean truncate,
+            MessageDigest digest)
+            throws IOException {
+        logger.info(
+                "Downloading {} ({} bytes) in {} chunks over up to {} connections",
+                url,
+                totalLength,
+                missing.size(),
+                connections);
+
+        Set<StandardOpenOption> openOptions =
+                EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (truncate) {
+            openOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        try (FileChannel channel = FileChannel.open(part, openOptions)) {
+            preallocate(channel, totalLength);
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, missing.size()));
+            try {
+                List<Future<?>> futures = new ArrayList<>(missing.size());
+                Range probe = missing.get(0);
+                futures.add(executor.submit(() -> {
+                    writeRange(first, channel, probe);
+                    journal.record(probe.start(), probe.end());
+                    return null;
+                }));
+                for (Range range : missing.subList(1, missing.size())) {
+                    futures.add(executor.submit(() -> {
+                        HttpURLConnection connection = openRange(url, range, timeoutMillis);
+                        try {
+                            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                                throw new IOException("Expected HTTP 206 for range " + range + " of " + url
+                                        + " but got HTTP " + connection.getResponseCode());
+                            }
+                            writeRange(connection, channel, range);
+                            journal.record(range.start(), range.end());
+                        } finally {
+                            connection.disconnect();
+                        }
+                        return null;
+                    }));
+                }
+
+                // SHA-256 is sequential, so chunks are folded into the digest in file order as soon as they land,
+                // while later chunks are still downloading; the bytes are read back from the page cache, not disk
+                long hashed = 0;
+                for (int i = 0; i < missing.size(); i++) {
+                    Range range = missing.get(i);
+                    hash(channel, hashed, range.start(), digest);
+                    await(futures.get(i));
+                    hash(channel, range.start(), range.end() + 1, digest);
+                    hashed = range.end() + 1;
+                }
+                hash(channel, hashed, totalLength, digest);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void preallocate(FileChannel channel, long length) throws IOException {
+        if (length > 0 && channel.size() < length) {
+            // writing the last byte sizes the file up front, so the chunks can be written in any order
+            channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+        }
+    }
+
+    private static void writeRange(URLConnection connection, FileChannel channel, Range range) throws IOException {
+        long position = range.start();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = connection.getInputStream()) {
+            while (position <= range.end()) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, range.end() - position + 1));
+                if (read == -1) {
+                    break;
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+        }
+        if (position != range.end() + 1) {
+            throw new IOException("Range " + range + " ended early after " + (position - range.start()) + " bytes");
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** Adds the bytes in {@code [from, to)} of the channel to the digest. */
+    private static void hash(FileChannel channel, long from, long to, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file at " + position + " while hashing up to " + to);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static void copy(InputStream in, Path target, MessageDigest digest) throws IOException {
+        Files.copy(new DigestInputStream(in, digest), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static String hashFile(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            hash(channel, 0, channel.size(), digest);
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Opens a connection that fails rather than hangs when the server stops answering: connecting, and every read
+     * afterwards, gives up once {@code timeoutMillis} pass without progress, so the next source can be tried.
+     */
+    static URLConnection open(URL url, int timeoutMillis) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection;
+    }
+
+    private static HttpURLConnection openRange(URL url, Range range, int timeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) open(url, timeoutMillis);
+        connection.setRequestProperty("Range", "bytes=" + range);
+        return connection;
+    }
+
+    private static String validator(URLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        String lastModified = connection.getHeaderField("Last-Modified");
+        return lastModified == null ? "" : lastModified;
+    }
+
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!matcher.matches() || matcher.group(3).equals("*")) {
+            return -1;
+        }
+        return Long.parseLong(matcher.group(3));
+    }
+
+    private static boolean isHttp(URL url) {
+        return url.getProtocol().equals("http") || url.getProtocol().equals("https");
+    }
+
+    /** Reads a stream as it arrives, like {@link java.util.function.Consumer} but allowed to fail with I/O errors. */
+    interface StreamConsumer {
+        void accept(InputStream in) throws IOException;
+    }
+
+    /** Copies everything read through it to a second stream. */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                copy.write(value);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                copy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // skipping would leave holes in the copy, so read through instead
+            long skipped = 0;
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(count, 1))];
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+}
@@ -19,8 +19,15 @@ package com.palantir.gradle.graal;
 import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import org.gradle.api.Action;
 import org.gradle.api.GradleException;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
@@ -46,6 +53,14 @@ public class GraalExtension {
     private static final String DEFAULT_GRAAL_VERSION = "20.2.0";
     private static final List<String> SUPPORTED_JAVA_VERSIONS = Arrays.asList("17", "16", "11", "8");
     private static final String DEFAULT_JAVA_VERSION = "8";
+    private static final int DEFAULT_DOWNLOAD_CONNECTIONS = 4;
+    private static final long DEFAULT_DOWNLOAD_CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final int DEFAULT_DOWNLOAD_TIMEOUT_SECONDS = 60;
+    private static final long DEFAULT_NATIVE_IMAGE_MEMORY_MEGABYTES = 8 * 1024;
+    private static final int DEFAULT_BENCHMARK_ITERATIONS = 10;
+    private static final int DEFAULT_BUILD_SERVER_IDLE_MINUTES = 30;
+    private static final List<String> SUPPORTED_GARBAGE_COLLECTORS =
+            Arrays.asList("serial", "parallel", "g1", "default");
 
     private final Property<String> downloadBaseUrl;
     private final Property<String> graalVersion;
@@ -56,6 +71,44 @@ public class GraalExtension {
     private final Property<String> mainClass;
     private final Property<String> outputName;
     private final ListProperty<String> options;
+    private final Property<Integer> downloadConnections;
+    private final Property<Long> downloadChunkSize;
+    private final Property<Integer> downloadTimeoutSeconds;
+    private final Property<String> checksum;
+    private final Property<Boolean> checksumFromSidecar;
+    private final Property<Boolean> pipelinedInstall;
+    private final Property<Boolean> keepArchive;
+    private final Property<Long> cacheMaxBytes;
+    private final Property<Integer> cacheMaxVersions;
+    private final Property<Integer> cacheMaxUnusedDays;
+    private final ListProperty<String> mirrors;
+    private final Property<String> mavenModule;
+    private final Property<Long> memoryBudgetMegabytes;
+    private final Property<Integer> processorBudget;
+    private final Property<Long> nativeImageMemoryMegabytes;
+    private final Property<Integer> nativeImageParallelism;
+    private final Property<String> nativeImageGarbageCollector;
+    private final Property<Boolean> sizeBreakdown;
+    private final Property<Long> maxImageBytes;
+    private final Property<Double> maxImageGrowthPercent;
+    private final RegularFileProperty imageSizeBaseline;
+    private final Property<Boolean> pgo;
+    private final ListProperty<String> pgoWorkloadArgs;
+    private final ConfigurableFileCollection pgoProfiles;
+    private final ListProperty<String> agentTracedTasks;
+    private final Property<Integer> benchmarkIterations;
+    private final ListProperty<String> benchmarkArgs;
+    private final Property<String> benchmarkReadinessMarker;
+    private final Property<Boolean> benchmarkOnJvm;
+    private final RegularFileProperty benchmarkBaseline;
+    private final Property<Double> maxBenchmarkRegressionPercent;
+    private final NamedDomainObjectContainer<GraalProfile> profiles;
+    private final NamedDomainObjectContainer<GraalImage> images;
+    private final Property<Boolean> pruneClasspath;
+    private final Property<Boolean> buildServer;
+    private final Property<Integer> buildServerIdleMinutes;
+    private final Property<Long> buildServerMemoryMegabytes;
+    private final ProjectLayout layout;
 
     private ProviderFactory providerFactory;
 
@@ -69,11 +122,67 @@ public class GraalExtension {
         mainClass = project.getObjects().property(String.class);
         outputName = project.getObjects().property(String.class);
         options = project.getObjects().listProperty(String.class).empty(); // .empty() required to initialize
+        downloadConnections = project.getObjects().property(Integer.class);
+        downloadChunkSize = project.getObjects().property(Long.class);
+        downloadTimeoutSeconds = project.getObjects().property(Integer.class);
+        checksum = project.getObjects().property(String.class);
+        checksumFromSidecar = project.getObjects().property(Boolean.class);
+        pipelinedInstall = project.getObjects().property(Boolean.class);
+        keepArchive = project.getObjects().property(Boolean.class);
+        cacheMaxBytes = project.getObjects().property(Long.class);
+        cacheMaxVersions = project.getObjects().property(Integer.class);
+        cacheMaxUnusedDays = project.getObjects().property(Integer.class);
+        mirrors = project.getObjects().listProperty(String.class).empty();
+        mavenModule = project.getObjects().property(String.class);
+        memoryBudgetMegabytes = project.getObjects().property(Long.class);
+        processorBudget = project.getObjects().property(Integer.class);
+        nativeImageMemoryMegabytes = project.getObjects().property(Long.class);
+        nativeImageParallelism = project.getObjects().property(Integer.class);
+        nativeImageGarbageCollector = project.getObjects().property(String.class);
+        sizeBreakdown = project.getObjects().property(Boolean.class);
+        maxImageBytes = project.getObjects().property(Long.class);
+        maxImageGrowthPercent = project.getObjects().property(Double.class);
+        imageSizeBaseline = project.getObjects().fileProperty();
+        pgo = project.getObjects().property(Boolean.class);
+        pgoWorkloadArgs = project.getObjects().listProperty(String.class).empty();
+        pgoProfiles = project.getObjects().fileCollection();
+        agentTracedTasks = project.getObjects().listProperty(String.class).empty();
+        benchmarkIterations = project.getObjects().property(Integer.class);
+        benchmarkArgs = project.getObjects().listProperty(String.class).empty();
+        benchmarkReadinessMarker = project.getObjects().property(String.class);
+        benchmarkOnJvm = project.getObjects().property(Boolean.class);
+        benchmarkBaseline = project.getObjects().fileProperty();
+        maxBenchmarkRegressionPercent = project.getObjects().property(Double.class);
+        profiles = project.getObjects().domainObjectContainer(GraalProfile.class);
+        images = project.getObjects().domainObjectContainer(GraalImage.class);
+        pruneClasspath = project.getObjects().property(Boolean.class);
+        buildServer = project.getObjects().property(Boolean.class);
+        buildServerIdleMinutes = project.getObjects().property(Integer.class);
+        buildServerMemoryMegabytes = project.getObjects().property(Long.class);
+        layout = project.getLayout();
         providerFactory = project.getProviders();
 
         // defaults
         graalVersion.set(DEFAULT_GRAAL_VERSION);
         javaVersion.set(DEFAULT_JAVA_VERSION);
+        downloadConnections.set(DEFAULT_DOWNLOAD_CONNECTIONS);
+        downloadChunkSize.set(DEFAULT_DOWNLOAD_CHUNK_SIZE);
+        downloadTimeoutSeconds.set(DEFAULT_DOWNLOAD_TIMEOUT_SECONDS);
+        checksumFromSidecar.set(false);
+        pipelinedInstall.set(false);
+        sizeBreakdown.set(false);
+        pgo.set(false);
+        benchmarkIterations.set(DEFAULT_BENCHMARK_ITERATIONS);
+        benchmarkOnJvm.set(false);
+        pruneClasspath.set(false);
+        buildServer.set(false);
+        buildServerIdleMinutes.set(DEFAULT_BUILD_SERVER_IDLE_MINUTES);
+        profiles.register("dev", profile -> {
+            // the quick build mode, which also inlines less, and keeps debug information for debugging
+            profile.optimizationLevel("b");
+            profile.debugInfo(true);
+        });
+        profiles.register("release", profile -> profile.optimizationLevel("2"));
     }
 
     public final void downloadBaseUrl(String value) {
@@ -87,7 +196,519 @@ public class GraalExtension {
      * <p>Defaults to {@link #DOWNLOAD_BASE_URL_GRAAL_19_3} for GraalVM higher or equal to 19.3.</p>
      */
     public final Provider<String> getDownloadBaseUrl() {
-        return downloadBaseUrl.orElse(getDefaultDownloadBaseUrl());
+        return downloadBaseUrl.orElse(providerFactory.provider(this::getDefaultDownloadBaseUrl));
+    }
+
+    public final void mirror(String value) {
+        mirrors.add(value);
+    }
+
+    /**
+     * Returns the base URLs of mirrors to fetch GraalVM from before falling back to the download base URL. Mirrors
+     * use the same layout as {@link #getDownloadBaseUrl()}; {@code file:} mirrors may also hold the archive directly.
+     */
+    public final Provider<List<String>> getMirrors() {
+        return mirrors;
+    }
+
+    public final void mavenModule(String value) {
+        mavenModule.set(value);
+    }
+
+    /**
+     * Returns the {@code group:name} of a module in the project's repositories that publishes GraalVM archives, with
+     * the GraalVM version as its version and {@code java<javaVersion>-<os>-<arch>} as the classifier (optional).
+     */
+    public final Provider<String> getMavenModule() {
+        return mavenModule;
+    }
+
+    public final void downloadConnections(int value) {
+        downloadConnections.set(value);
+    }
+
+    /**
+     * Returns the maximum number of connections used to download GraalVM from servers that support range requests.
+     *
+     * <p>Defaults to {@link #DEFAULT_DOWNLOAD_CONNECTIONS}</p>
+     */
+    public final Provider<Integer> getDownloadConnections() {
+        return downloadConnections;
+    }
+
+    public final void downloadChunkSize(long value) {
+        downloadChunkSize.set(value);
+    }
+
+    /**
+     * Returns the size in bytes of each range requested when downloading GraalVM over multiple connections.
+     *
+     * <p>Defaults to {@link #DEFAULT_DOWNLOAD_CHUNK_SIZE}</p>
+     */
+    public final Provider<Long> getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    public final void downloadTimeoutSeconds(int value) {
+        downloadTimeoutSeconds.set(value);
+    }
+
+    /**
+     * Returns how long connecting to a GraalVM source, or waiting for more of its data, may take before that source is
+     * given up on and the next one is tried.
+     *
+     * <p>Defaults to {@link #DEFAULT_DOWNLOAD_TIMEOUT_SECONDS}</p>
+     */
+    public final Provider<Integer> getDownloadTimeoutSeconds() {
+        return downloadTimeoutSeconds;
+    }
+
+    public final void checksum(String value) {
+        checksum.set(value);
+    }
+
+    /**
+     * Returns the expected SHA-256 of the GraalVM archive for the configured version, Java version and platform.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a checksum has been set.</p>
+     */
+    public final Provider<String> getChecksum() {
+        return checksum;
+    }
+
+    public final void checksumFromSidecar(boolean value) {
+        checksumFromSidecar.set(value);
+    }
+
+    /**
+     * Returns whether the expected SHA-256 should be read from the {@code .sha256} file published next to the archive
+     * when no {@link #getChecksum() checksum} is set.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getChecksumFromSidecar() {
+        return checksumFromSidecar;
+    }
+
+    public final void pipelinedInstall(boolean value) {
+        pipelinedInstall.set(value);
+    }
+
+    /**
+     * Returns whether the GraalVM archive is extracted while it downloads, instead of being written to the cache and
+     * read back.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getPipelinedInstall() {
+        return pipelinedInstall;
+    }
+
+    public final void keepArchive(boolean value) {
+        keepArchive.set(value);
+    }
+
+    /**
+     * Returns whether the downloaded archive stays in the cache once it has been extracted. A
+     * {@link #getPipelinedInstall() pipelined install} only writes the archive to the cache at all if this is set.
+     *
+     * <p>Defaults to {@code false} for pipelined installs and {@code true} otherwise.</p>
+     */
+    public final Provider<Boolean> getKeepArchive() {
+        return keepArchive.orElse(pipelinedInstall.map(pipelined -> !pipelined));
+    }
+
+    public final void cacheMaxBytes(long value) {
+        cacheMaxBytes.set(value);
+    }
+
+    /**
+     * Returns the total size in bytes the GraalVM cache is trimmed to after installing a new version, by evicting the
+     * least recently used versions.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a limit has been set.</p>
+     */
+    public final Provider<Long> getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public final void cacheMaxVersions(int value) {
+        cacheMaxVersions.set(value);
+    }
+
+    /**
+     * Returns the number of GraalVM versions, counting each Java version separately, that the cache is trimmed to after
+     * installing a new version, by evicting the least recently used versions.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a limit has been set.</p>
+     */
+    public final Provider<Integer> getCacheMaxVersions() {
+        return cacheMaxVersions;
+    }
+
+    public final void cacheMaxUnusedDays(int value) {
+        cacheMaxUnusedDays.set(value);
+    }
+
+    /**
+     * Returns the number of days after which a GraalVM version that has not been used to compile anything is evicted
+     * from the cache when a new version is installed.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a limit has been set.</p>
+     */
+    public final Provider<Integer> getCacheMaxUnusedDays() {
+        return cacheMaxUnusedDays;
+    }
+
+    public final void memoryBudgetMegabytes(long value) {
+        memoryBudgetMegabytes.set(value);
+    }
+
+    /**
+     * Returns the total heap, in megabytes, that native-image processes running at the same time may use across the
+     * whole build. The budget is shared by all projects, and taken from the first project that applies this plugin.
+     *
+     * <p>Defaults to three quarters of the memory available to the build, taking container limits into account</p>
+     */
+    public final Provider<Long> getMemoryBudgetMegabytes() {
+        return memoryBudgetMegabytes.orElse(providerFactory.provider(() -> HostResources.memoryMegabytes() * 3 / 4));
+    }
+
+    public final void processorBudget(int value) {
+        processorBudget.set(value);
+    }
+
+    /**
+     * Returns the total number of threads that native-image processes running at the same time may use across the
+     * whole build. Like the {@link #getMemoryBudgetMegabytes() memory budget}, it is shared by all projects.
+     *
+     * <p>Defaults to the number of processors available to the build, taking container limits into account</p>
+     */
+    public final Provider<Integer> getProcessorBudget() {
+        return processorBudget.orElse(providerFactory.provider(HostResources::processors));
+    }
+
+    public final void nativeImageMemoryMegabytes(long value) {
+        nativeImageMemoryMegabytes.set(value);
+    }
+
+    /**
+     * Returns the heap, in megabytes, of each native-image process, passed as {@code -J-Xmx} unless the options
+     * already contain one.
+     *
+     * <p>Defaults to {@link #DEFAULT_NATIVE_IMAGE_MEMORY_MEGABYTES}, or the memory budget if that is smaller</p>
+     */
+    public final Provider<Long> getNativeImageMemoryMegabytes() {
+        return nativeImageMemoryMegabytes.orElse(getMemoryBudgetMegabytes()
+                .map(budget -> Math.min(DEFAULT_NATIVE_IMAGE_MEMORY_MEGABYTES, budget)));
+    }
+
+    public final void nativeImageParallelism(int value) {
+        nativeImageParallelism.set(value);
+    }
+
+    /**
+     * Returns the number of threads of each native-image process, passed as {@code --parallelism} or
+     * {@code -H:NumberOfThreads} unless the options already contain either.
+     *
+     * <p>Defaults to the same share of the processor budget as the heap is of the memory budget, so that as many
+     * processes fit into one as into the other</p>
+     */
+    public final Provider<Integer> getNativeImageParallelism() {
+        return nativeImageParallelism.orElse(providerFactory.provider(() -> {
+            long memoryBudget = getMemoryBudgetMegabytes().get();
+            int processors = getProcessorBudget().get();
+            long share = processors * getNativeImageMemoryMegabytes().get() / Math.max(1, memoryBudget);
+            return (int) Math.max(1, Math.min(processors, share));
+        }));
+    }
+
+    public final void nativeImageGarbageCollector(String value) {
+        if (!SUPPORTED_GARBAGE_COLLECTORS.contains(value)) {
+            throw new GradleException("Garbage collector " + value + " is not supported. Supported collectors are: "
+                    + SUPPORTED_GARBAGE_COLLECTORS);
+        }
+        nativeImageGarbageCollector.set(value);
+    }
+
+    /**
+     * Returns the garbage collector of each native-image process: {@code serial}, {@code parallel}, {@code g1}, or
+     * {@code default} to leave the choice to the JVM. Not applied if the options already select a collector.
+     *
+     * <p>Defaults to {@code parallel}, which suits a batch job like native-image best, or {@code serial} if the
+     * process only gets one thread</p>
+     */
+    public final Provider<String> getNativeImageGarbageCollector() {
+        return nativeImageGarbageCollector.orElse(
+                getNativeImageParallelism().map(threads -> threads > 1 ? "parallel" : "serial"));
+    }
+
+    public final void sizeBreakdown(boolean value) {
+        sizeBreakdown.set(value);
+    }
+
+    /**
+     * Returns whether {@code nativeImage} dumps the size of each method and class, so that
+     * {@code nativeImageSizeReport} can break the image size down by package and class.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getSizeBreakdown() {
+        return sizeBreakdown;
+    }
+
+    public final void maxImageBytes(long value) {
+        maxImageBytes.set(value);
+    }
+
+    /**
+     * Returns the size in bytes above which {@code nativeImageSizeReport} fails the build.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a budget has been set.</p>
+     */
+    public final Provider<Long> getMaxImageBytes() {
+        return maxImageBytes;
+    }
+
+    public final void maxImageGrowthPercent(double value) {
+        maxImageGrowthPercent.set(value);
+    }
+
+    /**
+     * Returns by how many percent the image may grow over the {@link #getImageSizeBaseline() size baseline} before
+     * {@code nativeImageSizeReport} fails the build.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a budget has been set.</p>
+     */
+    public final Provider<Double> getMaxImageGrowthPercent() {
+        return maxImageGrowthPercent;
+    }
+
+    public final void imageSizeBaseline(String path) {
+        imageSizeBaseline.set(layout.getProjectDirectory().file(path));
+    }
+
+    /**
+     * Returns the file, relative to the project directory, that records the image size growth is measured against.
+     * It is written by {@code updateNativeImageSizeBaseline} and meant to be checked in.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a baseline has been set.</p>
+     */
+    public final Provider<RegularFile> getImageSizeBaseline() {
+        return imageSizeBaseline;
+    }
+
+    public final void pgo(boolean value) {
+        pgo.set(value);
+    }
+
+    /**
+     * Returns whether {@code nativeImage} is optimized with profiles collected from an instrumented image, which
+     * requires Oracle GraalVM rather than GraalVM CE.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getPgo() {
+        return pgo;
+    }
+
+    public final void pgoWorkloadArg(String value) {
+        pgoWorkloadArgs.add(value);
+    }
+
+    /**
+     * Returns the arguments {@code collectPgoProfile} runs the instrumented image with, which should make it exercise
+     * the code paths that matter for performance.
+     */
+    public final Provider<List<String>> getPgoWorkloadArgs() {
+        return pgoWorkloadArgs;
+    }
+
+    public final void pgoProfile(Object paths) {
+        pgoProfiles.from(paths);
+    }
+
+    /**
+     * Returns the {@code .iprof} profiles to optimize {@code nativeImage} with instead of running
+     * {@code collectPgoProfile}, such as profiles checked in or written by a workload task of the build's own. Task
+     * outputs may be added, so that the workload runs before {@code nativeImage}.
+     */
+    public final FileCollection getPgoProfiles() {
+        return pgoProfiles;
+    }
+
+    public final void traceWithAgent(String taskName) {
+        agentTracedTasks.add(taskName);
+    }
+
+    /**
+     * Returns the names of the {@code Test} and {@code JavaExec} tasks that run on the GraalVM JDK with the
+     * native-image agent, to generate the reflection, JNI, proxy and resource configuration of the image.
+     */
+    public final Provider<List<String>> getAgentTracedTasks() {
+        return agentTracedTasks;
+    }
+
+    public final void benchmarkIterations(int value) {
+        if (value < 1) {
+            throw new GradleException("benchmarkIterations must be at least 1, was " + value);
+        }
+        benchmarkIterations.set(value);
+    }
+
+    /**
+     * Returns how many times {@code benchmarkNativeImage} runs the image, after one run to warm up.
+     *
+     * <p>Defaults to {@code 10}</p>
+     */
+    public final Provider<Integer> getBenchmarkIterations() {
+        return benchmarkIterations;
+    }
+
+    public final void benchmarkArg(String value) {
+        benchmarkArgs.add(value);
+    }
+
+    /**
+     * Returns the arguments {@code benchmarkNativeImage} runs the image with.
+     */
+    public final Provider<List<String>> getBenchmarkArgs() {
+        return benchmarkArgs;
+    }
+
+    public final void benchmarkReadinessMarker(String value) {
+        benchmarkReadinessMarker.set(value);
+    }
+
+    /**
+     * Returns the text the image prints once it has started, such as a server's "started" message, at which point
+     * {@code benchmarkNativeImage} stops it. Without it, startup lasts until the image exits (optional).
+     */
+    public final Provider<String> getBenchmarkReadinessMarker() {
+        return benchmarkReadinessMarker;
+    }
+
+    public final void benchmarkOnJvm(boolean value) {
+        benchmarkOnJvm.set(value);
+    }
+
+    /**
+     * Returns whether {@code benchmarkNativeImage} also runs the main class on the JVM of the GraalVM distribution,
+     * for comparison.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getBenchmarkOnJvm() {
+        return benchmarkOnJvm;
+    }
+
+    public final void benchmarkBaseline(String path) {
+        benchmarkBaseline.set(layout.getProjectDirectory().file(path));
+    }
+
+    /**
+     * Returns the file, relative to the project directory, holding the benchmark results that later ones are checked
+     * against. It is written by {@code updateNativeImageBenchmarkBaseline} and meant to be checked in.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a baseline has been set.</p>
+     */
+    public final Provider<RegularFile> getBenchmarkBaseline() {
+        return benchmarkBaseline;
+    }
+
+    public final void maxBenchmarkRegressionPercent(double value) {
+        maxBenchmarkRegressionPercent.set(value);
+    }
+
+    /**
+     * Returns by how many percent the median startup time and peak memory of the image may exceed the
+     * {@link #getBenchmarkBaseline() benchmark baseline} before {@code benchmarkNativeImage} fails the build.
+     *
+     * <p>Check {@link org.gradle.api.provider.Provider#isPresent()} to determine if a budget has been set.</p>
+     */
+    public final Provider<Double> getMaxBenchmarkRegressionPercent() {
+        return maxBenchmarkRegressionPercent;
+    }
+
+    public final void profiles(Action<? super NamedDomainObjectContainer<GraalProfile>> action) {
+        action.execute(profiles);
+    }
+
+    /**
+     * Returns the profiles that images can be built with, each by a {@code nativeImage<Name>} task writing to
+     * {@code build/graal/<name>}. A {@code dev} profile for quick builds and a {@code release} profile for optimized
+     * images are predefined, and can be changed or joined by others.
+     */
+    public final NamedDomainObjectContainer<GraalProfile> getProfiles() {
+        return profiles;
+    }
+
+    public final void images(Action<? super NamedDomainObjectContainer<GraalImage>> action) {
+        action.execute(images);
+    }
+
+    /**
+     * Returns the additional images built from this project, each by a {@code <name>NativeImage} task writing to
+     * {@code build/graal/images/<name>}, and all of them by {@code nativeImages}.
+     */
+    public final NamedDomainObjectContainer<GraalImage> getImages() {
+        return images;
+    }
+
+    public final void pruneClasspath(boolean value) {
+        pruneClasspath.set(value);
+    }
+
+    /**
+     * Returns whether the classpath is trimmed to the classes reachable from the project's own classes before it is
+     * handed to native-image, which shortens the analysis of large classpaths.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getPruneClasspath() {
+        return pruneClasspath;
+    }
+
+    public final void buildServer(boolean value) {
+        buildServer.set(value);
+    }
+
+    /**
+     * Returns whether native-image runs its builds on a build server that is kept running between builds, so that
+     * later builds skip starting and warming up the builder. Only GraalVM 19 and 20 have a build server; other
+     * versions build as usual.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getBuildServer() {
+        return buildServer;
+    }
+
+    public final void buildServerIdleMinutes(int value) {
+        buildServerIdleMinutes.set(value);
+    }
+
+    /**
+     * Returns how long a build server may go unused before it is shut down by the next build to finish.
+     *
+     * <p>Defaults to {@code 30}</p>
+     */
+    public final Provider<Integer> getBuildServerIdleMinutes() {
+        return buildServerIdleMinutes;
+    }
+
+    public final void buildServerMemoryMegabytes(long value) {
+        buildServerMemoryMegabytes.set(value);
+    }
+
+    /**
+     * Returns the most heap that the build servers kept running between builds may have together. Once a build
+     * finishes, the least recently used servers are shut down until those left fit.
+     *
+     * <p>Defaults to the heap of one native-image process, so one server is kept</p>
+     */
+    public final Provider<Long> getBuildServerMemoryMegabytes() {
+        return buildServerMemoryMegabytes.orElse(getNativeImageMemoryMegabytes());
     }
 
     public final void mainClass(String value) {
@@ -142,12 +763,18 @@ public class GraalExtension {
      * <p>Defaults to {@link #WINDOWS_7_ENV_PATH} for JDK lower than 11</p>
      */
     public final Provider<String> getWindowsVsVarsPath() {
-        return windowsVsVarsPath.orElse(searchWindowsVsVarsPath());
+        // searched only when a task needs the path, and only on Windows, so configuring a build never probes for it
+        return windowsVsVarsPath.orElse(providerFactory.provider(() ->
+                Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS ? searchWindowsVsVarsPath() : ""));
     }
 
     private String searchWindowsVsVarsPath() {
-        String searchedVsVersion = windowsVsVersion.getOrElse(getNewestWindowsVsVersionInstalled());
-        String searchedVsEdition = windowsVsEdition.getOrElse(getBiggestWindowsVsEditionInstalled(searchedVsVersion));
+        String searchedVsVersion = windowsVsVersion.isPresent()
+                ? windowsVsVersion.get()
+                : getNewestWindowsVsVersionInstalled();
+        String searchedVsEdition = windowsVsEdition.isPresent()
+                ? windowsVsEdition.get()
+                : getBiggestWindowsVsEditionInstalled(searchedVsVersion);
         if (searchedVsEdition == null || searchedVsVersion == null) {
             return "";
         }
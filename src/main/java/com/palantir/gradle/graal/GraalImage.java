@@ -0,0 +1,88 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.Named;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+
+/**
+ * One of several native images built from a project, such as binaries with different main classes, garbage
+ * collectors or options. Each image gets its own {@code <name>NativeImage} task and output directory, and shares the
+ * GraalVM installation, classpath and resource budget with the others.
+ */
+public class GraalImage implements Named {
+    private final String name;
+    private final Property<String> mainClass;
+    private final Property<String> outputName;
+    private final ListProperty<String> options;
+
+    @Inject
+    public GraalImage(String name, ObjectFactory objects) {
+        this.name = name;
+        this.mainClass = objects.property(String.class);
+        this.outputName = objects.property(String.class);
+        this.options = objects.listProperty(String.class).empty();
+        outputName.set(name);
+    }
+
+    @Override
+    public final String getName() {
+        return name;
+    }
+
+    public final void mainClass(String value) {
+        mainClass.set(value);
+    }
+
+    /**
+     * Returns the main class of this image, if it differs from the main class of the extension.
+     */
+    public final Provider<String> getMainClass() {
+        return mainClass;
+    }
+
+    public final void outputName(String value) {
+        outputName.set(value);
+    }
+
+    /**
+     * Returns the name of the image file.
+     *
+     * <p>Defaults to the name of the image</p>
+     */
+    public final Provider<String> getOutputName() {
+        return outputName;
+    }
+
+    public final void option(String value) {
+        options.add(value);
+    }
+
+    /**
+     * Returns additional native-image options of this image, such as {@code --gc=G1}, passed after the options of the
+     * extension.
+     */
+    public final Provider<List<String>> getOptions() {
+        return options;
+    }
+}
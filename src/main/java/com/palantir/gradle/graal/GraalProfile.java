@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.GradleException;
+import org.gradle.api.Named;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+
+/**
+ * A named set of native-image settings, such as {@code dev} for fast builds while iterating and {@code release} for
+ * fully optimized images. Each profile gets its own {@code nativeImage<Name>} task and output directory, so switching
+ * between profiles leaves the others up to date.
+ */
+public class GraalProfile implements Named {
+    private static final List<String> SUPPORTED_OPTIMIZATION_LEVELS = Arrays.asList("b", "0", "1", "2", "3");
+
+    private final String name;
+    private final Property<String> optimizationLevel;
+    private final Property<Boolean> debugInfo;
+    private final ListProperty<String> options;
+
+    @Inject
+    public GraalProfile(String name, ObjectFactory objects) {
+        this.name = name;
+        this.optimizationLevel = objects.property(String.class);
+        this.debugInfo = objects.property(Boolean.class);
+        this.options = objects.listProperty(String.class).empty();
+        debugInfo.set(false);
+    }
+
+    @Override
+    public final String getName() {
+        return name;
+    }
+
+    public final void optimizationLevel(String value) {
+        if (!SUPPORTED_OPTIMIZATION_LEVELS.contains(value)) {
+            throw new GradleException("Optimization level " + value + " is not supported. Supported levels are: "
+                    + SUPPORTED_OPTIMIZATION_LEVELS);
+        }
+        optimizationLevel.set(value);
+    }
+
+    /**
+     * Returns the optimization level: {@code b} for the quickest build, or {@code 0} to {@code 3} for increasingly
+     * optimized images. Passed as {@code -O<level>} from GraalVM 22.2, and as the nearest {@code -H:Optimize} level
+     * before (optional).
+     */
+    public final Provider<String> getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    public final void debugInfo(boolean value) {
+        debugInfo.set(value);
+    }
+
+    /**
+     * Returns whether the image keeps debug information, with {@code -g}, rather than it being stripped.
+     *
+     * <p>Defaults to {@code false}</p>
+     */
+    public final Provider<Boolean> getDebugInfo() {
+        return debugInfo;
+    }
+
+    public final void option(String value) {
+        options.add(value);
+    }
+
+    /**
+     * Returns additional native-image options of this profile, passed after the options of the extension.
+     */
+    public final Provider<List<String>> getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Provisions each GraalVM archive and distribution at most once per build, however many projects apply the plugin.
+ *
+ * <p>Every project registers its own download and extract tasks, all pointing at the same cache entries. The first
+ * task to reach an entry does the work; tasks in other projects that reach it later, or while it is still in progress,
+ * wait for that same future instead of taking the cache lock and checking the cache again. Entries are keyed by their
+ * location in the cache, which is derived from the GraalVM version, Java version and distribution directory name.</p>
+ *
+ * <p>It also keeps distributions in use by tasks other than native-image, such as JVMs forked from GraalVM's
+ * {@code java}, from being evicted, for as long as those tasks run.</p>
+ */
+public abstract class GraalProvisioningService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    static final String NAME = "graalProvisioning";
+
+    private final ConcurrentMap<Path, CompletableFuture<Path>> provisioned = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CountDownLatch> uses = new ConcurrentHashMap<>();
+
+    /**
+     * Runs {@code work} to provision {@code location}, unless it is already being, or has been, provisioned in this
+     * build, in which case this waits for that to finish. Returns {@code location}.
+     */
+    final Path provision(Path location, Provisioner work) throws IOException {
+        Path key = location.toAbsolutePath().normalize();
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = provisioned.putIfAbsent(key, created);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            work.provision();
+            created.complete(location);
+            return location;
+        } catch (IOException | RuntimeException | Error e) {
+            // waiting tasks share this failure, later ones get to try again
+            provisioned.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Holds the cache lock guarded by {@code lockFile} shared on behalf of {@code user}, until {@link #release} is
+     * called for it or the build finishes, whichever comes first.
+     *
+     * <p>Cache locks belong to the thread that took them, while a task may finish, or fail, on another; so the lock is
+     * held by a thread of its own, which any thread can tell to let go.</p>
+     */
+    final void use(String user, Path lockFile, Logger logger) throws IOException {
+        CompletableFuture<Path> acquired = new CompletableFuture<>();
+        CountDownLatch released = new CountDownLatch(1);
+        Thread holder = new Thread(
+                () -> {
+                    try (GraalCacheLock _lock = GraalCacheLock.acquireShared(lockFile, logger)) {
+                        acquired.complete(lockFile);
+                        released.await();
+                    } catch (IOException | RuntimeException e) {
+                        acquired.completeExceptionally(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                "gradle-graal-cache-use");
+        holder.setDaemon(true);
+        holder.start();
+        try {
+            acquired.get();
+        } catch (InterruptedException e) {
+            released.countDown();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the GraalVM cache lock " + lockFile, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to take the GraalVM cache lock " + lockFile, e.getCause());
+        }
+        CountDownLatch previous = uses.put(user, released);
+        if (previous != null) {
+            previous.countDown();
+        }
+    }
+
+    /** Lets go of the lock {@link #use} took for {@code user}, if it still holds one. */
+    final void release(String user) {
+        CountDownLatch released = uses.remove(user);
+        if (released != null) {
+            released.countDown();
+        }
+    }
+
+    @Override
+    public final void close() {
+        // tasks that failed never got to release their locks
+        uses.values().forEach(CountDownLatch::countDown);
+        uses.clear();
+    }
+
+    private static Path await(CompletableFuture<Path> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for GraalVM to be provisioned", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            throw new IllegalStateException("Provisioning GraalVM failed in another task", e.getCause());
+        }
+    }
+
+    /** Provisions one cache entry, like {@link Runnable} but allowed to fail with I/O errors. */
+    interface Provisioner {
+        void provision() throws IOException;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Limits how many native-image processes run at once across the whole build, by the memory and processors they use.
+ *
+ * <p>Each process reserves its heap and its thread count before it starts, and waits until both fit into what other
+ * processes have left of the budget. Both are reserved together, so a process never holds one while waiting for the
+ * other. A process asking for more than the whole budget runs on its own.</p>
+ */
+public abstract class GraalResourceBudget implements BuildService<GraalResourceBudget.Params> {
+    static final String NAME = "graalResourceBudget";
+
+    private long usedMemoryMegabytes;
+    private int usedProcessors;
+
+    /** Blocks until {@code memoryMegabytes} of heap and {@code processors} threads are available, and reserves them. */
+    final Reservation reserve(long memoryMegabytes, int processors, Logger logger) throws IOException {
+        long memoryBudget = getParameters().getMemoryMegabytes().get();
+        int processorBudget = getParameters().getProcessors().get();
+        long memory = Math.min(memoryMegabytes, memoryBudget);
+        int threads = Math.min(processors, processorBudget);
+        synchronized (this) {
+            if (!fits(memory, threads, memoryBudget, processorBudget)) {
+                logger.lifecycle(
+                        "Waiting for other native-image processes to finish ({} MB and {} processors in use)",
+                        usedMemoryMegabytes,
+                        usedProcessors);
+            }
+            while (!fits(memory, threads, memoryBudget, processorBudget)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for resources to run native-image", e);
+                }
+            }
+            usedMemoryMegabytes += memory;
+            usedProcessors += threads;
+        }
+        return () -> release(memory, threads);
+    }
+
+    private boolean fits(long memory, int threads, long memoryBudget, int processorBudget) {
+        return usedMemoryMegabytes + memory <= memoryBudget && usedProcessors + threads <= processorBudget;
+    }
+
+    private synchronized void release(long memory, int threads) {
+        usedMemoryMegabytes -= memory;
+        usedProcessors -= threads;
+        notifyAll();
+    }
+
+    public interface Params extends BuildServiceParameters {
+        /** The total heap, in megabytes, of all native-image processes running at once. */
+        Property<Long> getMemoryMegabytes();
+
+        /** The total number of threads of all native-image processes running at once. */
+        Property<Integer> getProcessors();
+    }
+
+    /** Resources reserved for one native-image process, returned to the budget when closed. */
+    interface Reservation extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
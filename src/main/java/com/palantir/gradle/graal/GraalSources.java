@@ -0,0 +1,169 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Orders the places a GraalVM archive can be fetched from, and fetches it from the first one that works.
+ *
+ * <p>Local {@code file:} sources come first, then archives that Gradle resolved from Maven repositories, then HTTP
+ * sources. When there is more than one HTTP source, they are probed concurrently with a short {@code HEAD} request
+ * and tried fastest first; sources that do not answer successfully are tried last. HTTP sources are skipped entirely
+ * when Gradle runs offline.</p>
+ */
+final class GraalSources {
+    private static final int PROBE_TIMEOUT_MILLIS = 2_000;
+
+    private GraalSources() {}
+
+    static List<URL> order(List<String> candidates, Iterable<File> resolvedArtifacts, boolean offline, Logger logger)
+            throws IOException {
+        List<URL> local = new ArrayList<>();
+        List<URL> remote = new ArrayList<>();
+        for (String candidate : candidates) {
+            URL url = new URL(candidate);
+            if (url.getProtocol().equals("file")) {
+                if (Files.isRegularFile(toPath(url))) {
+                    local.add(url);
+                }
+            } else if (offline) {
+                logger.info("Not fetching GraalVM from {} while offline", url);
+            } else {
+                remote.add(url);
+            }
+        }
+        for (File artifact : resolvedArtifacts) {
+            local.add(artifact.toURI().toURL());
+        }
+
+        List<URL> ordered = new ArrayList<>(local);
+        ordered.addAll(remote.size() > 1 ? byLatency(remote, logger) : remote);
+        return ordered;
+    }
+
+    /** Calls {@code fetch} with each source in turn until one succeeds, and fails only if they all do. */
+    static void fetchFromFirst(List<URL> sources, Fetch fetch, Logger logger) throws IOException {
+        if (sources.isEmpty()) {
+            throw new IOException("No source for GraalVM is available; check the configured mirrors, or whether the"
+                    + " build is running offline");
+        }
+        IOException failure = null;
+        for (URL source : sources) {
+            try {
+                fetch.fetch(source);
+                return;
+            } catch (IOException e) {
+                logger.warn("Failed to fetch GraalVM from {}: {}", source, e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /** Returns whether {@code source} is one of the archives Gradle resolved from a Maven repository. */
+    static boolean isResolvedArtifact(URL source, Iterable<File> resolvedArtifacts) {
+        for (File artifact : resolvedArtifacts) {
+            try {
+                if (artifact.toURI().toURL().equals(source)) {
+                    return true;
+                }
+            } catch (MalformedURLException e) {
+                // a file that has no URL cannot have been handed out as a source either
+            }
+        }
+        return false;
+    }
+
+    private static List<URL> byLatency(List<URL> urls, Logger logger) {
+        ExecutorService executor = Executors.newFixedThreadPool(urls.size());
+        try {
+            List<CompletableFuture<Long>> latencies = urls.stream()
+                    .map(url -> CompletableFuture.supplyAsync(() -> probe(url), executor))
+                    .collect(Collectors.toList());
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                order.add(i);
+                long latency = latencies.get(i).join();
+                if (latency == Long.MAX_VALUE) {
+                    logger.info("GraalVM source {} did not answer a probe, trying it last", urls.get(i));
+                } else {
+                    logger.info("Probed GraalVM source {}: {} ms", urls.get(i), latency);
+                }
+            }
+            order.sort(Comparator.comparingLong(i -> latencies.get(i).join()));
+            return order.stream().map(urls::get).collect(Collectors.toList());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Returns how long a {@code HEAD} request took, or {@link Long#MAX_VALUE} if it failed. */
+    private static long probe(URL url) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+            try {
+                int code = connection.getResponseCode();
+                if (code < 200 || code >= 400) {
+                    return Long.MAX_VALUE;
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static Path toPath(URL url) throws IOException {
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid file source " + url, e);
+        }
+    }
+
+    /** Fetches GraalVM from one source, like {@link java.util.function.Consumer} but allowed to throw I/O errors. */
+    interface Fetch {
+        void fetch(URL source) throws IOException;
+    }
+}
@@ -16,14 +16,36 @@
 
 package com.palantir.gradle.graal;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.plugins.JavaBasePlugin;
 import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.jvm.tasks.Jar;
+import org.gradle.process.JavaForkOptions;
 
 /**
  * Adds tasks to download, extract and interact with GraalVM tooling.
@@ -45,6 +67,9 @@ import org.gradle.jvm.tasks.Jar;
 public class GradleGraalPlugin implements Plugin<Project> {
 
     static final String TASK_GROUP = "Graal";
+    private static final String UPDATE_BENCHMARK_BASELINE = "updateNativeImageBenchmarkBaseline";
+    private static final Pattern CONFIGURATION_FILES_OPTION =
+            Pattern.compile("-H:(?:\\w+ConfigurationFiles|ConfigurationFileDirectories)=(.*)");
 
     @Override
     public final void apply(Project project) {
@@ -59,53 +84,446 @@ public class GradleGraalPlugin implements Plugin<Project> {
                         .resolve("caches")
                         .resolve("com.palantir.graal"));
 
+        // shared by every project in the build, so each GraalVM version is only provisioned once
+        Provider<GraalProvisioningService> provisioningService = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(GraalProvisioningService.NAME, GraalProvisioningService.class, _spec -> {});
+
+        // shared by every project in the build, so that native-image processes of all projects fit into one budget
+        Provider<GraalResourceBudget> resourceBudget = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(GraalResourceBudget.NAME, GraalResourceBudget.class, spec -> {
+                    spec.getParameters().getMemoryMegabytes().set(extension.getMemoryBudgetMegabytes());
+                    spec.getParameters().getProcessors().set(extension.getProcessorBudget());
+                });
+
+        // shared by every project in the build and persisted across builds, so each jar is hashed once until it changes
+        Provider<ClasspathFingerprints> classpathFingerprints = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(ClasspathFingerprints.NAME, ClasspathFingerprints.class, spec -> spec.getParameters()
+                        .getCacheDir()
+                        .set(cacheDir.toFile()));
+
+        // shared by every project in the build, which shuts down idle build servers once the build finishes
+        Provider<GraalBuildServers> buildServers = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(GraalBuildServers.NAME, GraalBuildServers.class, spec -> {
+                    spec.getParameters().getCacheDir().set(cacheDir.toFile());
+                    spec.getParameters().getIdleMinutes().set(extension.getBuildServerIdleMinutes());
+                    spec.getParameters().getMaxMemoryMegabytes().set(extension.getBuildServerMemoryMegabytes());
+                });
+
+        // GraalVM archives published to a Maven repository are resolved by Gradle, so they honour the build's
+        // repositories, credentials and offline mode; lenient, because the module may not publish every platform
+        Configuration graalDistribution = project.getConfigurations().create("graalDistribution", conf -> {
+            conf.setCanBeConsumed(false);
+            conf.setTransitive(false);
+        });
+        FileCollection mavenArtifacts = graalDistribution
+                .getIncoming()
+                .artifactView(view -> view.setLenient(true))
+                .getFiles();
+        Provider<Boolean> offline = project.provider(
+                () -> project.getGradle().getStartParameter().isOffline());
+
         TaskProvider<DownloadGraalTask> downloadGraal = project.getTasks()
                 .register("downloadGraalTooling", DownloadGraalTask.class, task -> {
                     task.setGraalVersion(extension.getGraalVersion());
                     task.setJavaVersion(extension.getJavaVersion());
                     task.setDownloadBaseUrl(extension.getDownloadBaseUrl());
+                    task.setDownloadConnections(extension.getDownloadConnections());
+                    task.setDownloadChunkSize(extension.getDownloadChunkSize());
+                    task.setDownloadTimeoutSeconds(extension.getDownloadTimeoutSeconds());
+                    task.setMirrors(extension.getMirrors());
+                    task.setMavenModule(extension.getMavenModule());
+                    task.setMavenArtifacts(mavenArtifacts);
+                    task.setOffline(offline);
+                    task.setChecksum(extension.getChecksum());
+                    task.setChecksumFromSidecar(extension.getChecksumFromSidecar());
+                    task.setPipelinedInstall(extension.getPipelinedInstall());
                     task.setCacheDir(cacheDir);
+                    task.setGraalDirectoryName(extension.getGraalDirectoryName());
+                    task.setProvisioningService(provisioningService);
+                    task.usesService(provisioningService);
                 });
 
+        graalDistribution.withDependencies(dependencies -> {
+            if (extension.getMavenModule().isPresent()) {
+                dependencies.add(project.getDependencies()
+                        .create(DownloadGraalTask.mavenDependencyNotation(
+                                extension.getMavenModule().get(),
+                                extension.getGraalVersion().get(),
+                                extension.getJavaVersion().get())));
+            }
+        });
+
         TaskProvider<ExtractGraalTask> extractGraal = project.getTasks()
                 .register("extractGraalTooling", ExtractGraalTask.class, task -> {
                     task.setGraalVersion(extension.getGraalVersion());
                     task.setJavaVersion(extension.getJavaVersion());
-                    task.setInputArchive(downloadGraal.get().getArchive());
+                    task.setInputArchive(downloadGraal.flatMap(DownloadGraalTask::getArchive));
                     task.setCacheDir(cacheDir);
                     task.setGraalDirectoryName(extension.getGraalDirectoryName());
+                    task.setPipelinedInstall(extension.getPipelinedInstall());
+                    task.setKeepArchive(extension.getKeepArchive());
+                    task.setDownloadUrls(downloadGraal.flatMap(DownloadGraalTask::getDownloadUrls));
+                    task.setMavenArtifacts(mavenArtifacts);
+                    task.setOffline(offline);
+                    task.setDownloadTimeoutSeconds(extension.getDownloadTimeoutSeconds());
+                    task.setChecksum(extension.getChecksum());
+                    task.setChecksumFromSidecar(extension.getChecksumFromSidecar());
+                    task.setCacheMaxBytes(extension.getCacheMaxBytes());
+                    task.setCacheMaxVersions(extension.getCacheMaxVersions());
+                    task.setCacheMaxUnusedDays(extension.getCacheMaxUnusedDays());
+                    task.setProvisioningService(provisioningService);
+                    task.usesService(provisioningService);
                     task.dependsOn(downloadGraal);
                 });
 
-        TaskProvider<Jar> jar = project.getTasks().withType(Jar.class).named("jar");
-        project.getTasks().register("nativeImage", NativeImageTask.class, task -> {
-            task.setMainClass(extension.getMainClass());
-            task.setOutputName(extension.getOutputName());
+        project.getTasks().register("cleanGraalCache", CleanGraalCacheTask.class, task -> {
             task.setGraalVersion(extension.getGraalVersion());
             task.setJavaVersion(extension.getJavaVersion());
-            task.setWindowsVsVarsPath(extension.getWindowsVsVarsPath());
-            task.setJarFile(jar.map(j -> j.getOutputs().getFiles().getSingleFile()));
-            task.setClasspath(project.getConfigurations().named("runtimeClasspath"));
+            task.setCacheMaxBytes(extension.getCacheMaxBytes());
+            task.setCacheMaxVersions(extension.getCacheMaxVersions());
+            task.setCacheMaxUnusedDays(extension.getCacheMaxUnusedDays());
             task.setCacheDir(cacheDir);
-            task.setGraalDirectoryName(extension.getGraalDirectoryName());
-            task.setOptions(extension.getOptions());
-            task.dependsOn(extractGraal);
-            task.dependsOn(jar);
         });
 
-        TaskProvider<Jar> sharedLibrary = project.getTasks().withType(Jar.class).named("jar");
-        project.getTasks().register("sharedLibrary", SharedLibraryTask.class, task -> {
-            task.setOutputName(extension.getOutputName());
+        // tasks traced with the native-image agent each write configuration to a directory of their own, and
+        // native-image merges all of them
+        FileCollection agentConfiguration = project.files((Callable<Object>) () -> extension
+                .getAgentTracedTasks()
+                .get()
+                .stream()
+                .map(name -> project.files(agentConfigurationDirectory(project, name)).builtBy(name))
+                .collect(Collectors.toList()));
+        project.getTasks().register("generateNativeImageConfig", task -> {
+            task.setGroup(TASK_GROUP);
+            task.setDescription("Runs the tasks traced with the native-image agent to generate image configuration.");
+            task.dependsOn(agentConfiguration);
+        });
+        project.afterEvaluate(_project -> extension.getAgentTracedTasks().get().forEach(name -> project.getTasks()
+                .named(name)
+                .configure(task -> traceWithAgent(
+                        task,
+                        extractGraal,
+                        new UseGraalJava(
+                                extractGraal.flatMap(ExtractGraalTask::getOutputDirectory),
+                                cacheDir,
+                                extension.getGraalVersion(),
+                                extension.getJavaVersion(),
+                                provisioningService),
+                        agentConfigurationDirectory(project, name)))));
+
+        TaskProvider<Jar> jar = project.getTasks().withType(Jar.class).named(JavaPlugin.JAR_TASK_NAME);
+        Provider<File> jarFile = jar.flatMap(Jar::getArchiveFile).map(RegularFile::getAsFile);
+        FileCollection runtimeClasspath = project.files(
+                project.getConfigurations().named(JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME));
+        Provider<List<String>> allOptions = project.provider(() -> {
+            List<String> options = new ArrayList<>(extension.getOptions().get());
+            for (GraalImage image : extension.getImages()) {
+                options.addAll(image.getOptions().get());
+            }
+            for (GraalProfile profile : extension.getProfiles()) {
+                options.addAll(profile.getOptions().get());
+            }
+            return options;
+        });
+        // main classes, options and image configuration may name classes outside the project, which pruning must keep
+        TaskProvider<PruneClasspathTask> pruneClasspath = project.getTasks()
+                .register("pruneGraalClasspath", PruneClasspathTask.class, task -> {
+                    task.setClasspath(runtimeClasspath);
+                    task.setRootClasspath(project.files(jar));
+                    task.setRootClassNames(allOptions.map(options -> {
+                        List<String> names = new ArrayList<>(options);
+                        if (extension.getMainClass().isPresent()) {
+                            names.add(extension.getMainClass().get());
+                        }
+                        for (GraalImage image : extension.getImages()) {
+                            if (image.getMainClass().isPresent()) {
+                                names.add(image.getMainClass().get());
+                            }
+                        }
+                        return names;
+                    }));
+                    task.setConfigurationFiles(project.files(
+                            agentConfiguration, (Callable<Object>) () -> configurationFiles(allOptions.get())));
+                });
+        Provider<Directory> prunedClasspath = extension.getPruneClasspath()
+                .flatMap(prune -> prune ? pruneClasspath.flatMap(PruneClasspathTask::getOutputDirectory) : null);
+
+        // everything native images and shared libraries have in common
+        Action<BaseGraalCompileTask> configureCompile = task -> {
             task.setGraalVersion(extension.getGraalVersion());
             task.setJavaVersion(extension.getJavaVersion());
             task.setWindowsVsVarsPath(extension.getWindowsVsVarsPath());
-            task.setJarFile(sharedLibrary.map(j -> j.getOutputs().getFiles().getSingleFile()));
-            task.setClasspath(project.getConfigurations().named("runtimeClasspath"));
+            task.setJarFile(jarFile);
+            task.setClasspath(runtimeClasspath);
+            task.setPrunedClasspath(prunedClasspath);
+            task.setClasspathFingerprints(classpathFingerprints);
+            task.usesService(classpathFingerprints);
+            task.setBuildServer(extension.getBuildServer());
+            task.setBuildServers(buildServers);
+            task.usesService(buildServers);
             task.setCacheDir(cacheDir);
             task.setGraalDirectoryName(extension.getGraalDirectoryName());
+            task.setDistributionChecksum(extractGraal.flatMap(ExtractGraalTask::getInstalledChecksum));
             task.setOptions(extension.getOptions());
+            task.setConfigurationDirectories(agentConfiguration);
+            task.setResourceBudget(resourceBudget);
+            task.setMemoryMegabytes(extension.getNativeImageMemoryMegabytes());
+            task.setParallelism(extension.getNativeImageParallelism());
+            task.setGarbageCollector(extension.getNativeImageGarbageCollector());
+            task.usesService(resourceBudget);
             task.dependsOn(extractGraal);
-            task.dependsOn(sharedLibrary);
+            task.dependsOn(jar);
+        };
+        Action<NativeImageTask> configureNativeImage = task -> {
+            configureCompile.execute(task);
+            task.setMainClass(extension.getMainClass());
+        };
+
+        // profile-guided optimization: an instrumented image is run against a workload, and its profile fed back
+        TaskProvider<NativeImageTask> nativeImageInstrumented = project.getTasks()
+                .register("nativeImageInstrumented", NativeImageTask.class, task -> {
+                    configureNativeImage.execute(task);
+                    task.setDescription("Builds a native image that records a profile of its execution for PGO.");
+                    task.setOutputName(extension.getOutputName().map(name -> name + "-instrumented"));
+                    task.setSizeBreakdown(project.provider(() -> false));
+                    task.setPgoInstrument(project.provider(() -> true));
+                });
+        TaskProvider<CollectPgoProfileTask> collectPgoProfile = project.getTasks()
+                .register("collectPgoProfile", CollectPgoProfileTask.class, task -> {
+                    task.setInstrumentedImage(nativeImageInstrumented.flatMap(NativeImageTask::getOutputFile));
+                    task.setArgs(extension.getPgoWorkloadArgs());
+                    task.setProfile(project.getLayout()
+                            .getBuildDirectory()
+                            .zip(extension.getOutputName(), (dir, name) -> dir.file("graal/pgo/" + name + ".iprof")));
+                });
+        // profiles given explicitly replace the collected one, so the instrumented image is then never built
+        FileCollection pgoProfiles = project.files((Callable<Object>) () -> {
+            if (!extension.getPgo().get()) {
+                return Collections.emptyList();
+            }
+            return extension.getPgoProfiles().isEmpty()
+                    ? collectPgoProfile.flatMap(CollectPgoProfileTask::getProfile)
+                    : extension.getPgoProfiles();
+        });
+
+        TaskProvider<NativeImageTask> nativeImage = project.getTasks()
+                .register("nativeImage", NativeImageTask.class, task -> {
+                    configureNativeImage.execute(task);
+                    task.setOutputName(extension.getOutputName());
+                    task.setSizeBreakdown(extension.getSizeBreakdown());
+                    task.setPgoInstrument(project.provider(() -> false));
+                    task.setPgoProfiles(pgoProfiles);
+                });
+
+        extension.getProfiles().all(profile -> project.getTasks()
+                .register(profileTaskName(profile), NativeImageTask.class, task -> {
+                    configureNativeImage.execute(task);
+                    task.setDescription("Builds a native image with the " + profile.getName() + " profile.");
+                    task.setOutputName(extension.getOutputName());
+                    // a directory of its own keeps the images of other profiles up to date
+                    task.setOutputDirectory(
+                            project.getLayout().getBuildDirectory().dir("graal/profiles/" + profile.getName()));
+                    task.setSizeBreakdown(extension.getSizeBreakdown());
+                    task.setPgoInstrument(project.provider(() -> false));
+                    task.setOptimizationLevel(profile.getOptimizationLevel());
+                    task.setDebugInfo(profile.getDebugInfo());
+                    task.setProfileOptions(profile.getOptions());
+                }));
+
+        // further images share the GraalVM installation, the classpath and the resource budget with nativeImage
+        TaskProvider<Task> nativeImages = project.getTasks().register("nativeImages", task -> {
+            task.setGroup(TASK_GROUP);
+            task.setDescription("Builds all images configured in graal.images.");
+        });
+        extension.getImages().all(image -> {
+            TaskProvider<NativeImageTask> imageTask = project.getTasks()
+                    .register(image.getName() + "NativeImage", NativeImageTask.class, task -> {
+                        configureNativeImage.execute(task);
+                        task.setDescription("Builds the " + image.getName() + " native image.");
+                        task.setMainClass(image.getMainClass().orElse(extension.getMainClass()));
+                        task.setOutputName(image.getOutputName());
+                        task.setOutputDirectory(
+                                project.getLayout().getBuildDirectory().dir("graal/images/" + image.getName()));
+                        task.setOptions(extension.getOptions().zip(image.getOptions(), (common, own) -> {
+                            List<String> options = new ArrayList<>(common);
+                            options.addAll(own);
+                            return options;
+                        }));
+                        task.setSizeBreakdown(extension.getSizeBreakdown());
+                        task.setPgoInstrument(project.provider(() -> false));
+                    });
+            nativeImages.configure(task -> task.dependsOn(imageTask));
         });
+
+        TaskProvider<NativeImageSizeReportTask> sizeReport = project.getTasks()
+                .register("nativeImageSizeReport", NativeImageSizeReportTask.class, task -> {
+                    task.setImageFile(nativeImage.flatMap(NativeImageTask::getOutputFile));
+                    // depending on its version, native-image may append .dump to the path it is given
+                    task.setDashboardDump(nativeImage.flatMap(image -> image.getReportsDirectory()
+                            .map(reports -> Arrays.asList(
+                                    reports.file(NativeImageTask.DASHBOARD_DUMP + ".dump"),
+                                    reports.file(NativeImageTask.DASHBOARD_DUMP)))));
+                    task.setMaxImageBytes(extension.getMaxImageBytes());
+                    task.setMaxGrowthPercent(extension.getMaxImageGrowthPercent());
+                    // a baseline that has not been recorded yet is not an error, there is just nothing to compare with
+                    task.setBaseline(extension.getImageSizeBaseline().map(f -> f.getAsFile().exists() ? f : null));
+                    task.dependsOn(nativeImage);
+                });
+        project.getTasks().register("updateNativeImageSizeBaseline", task -> {
+            task.setGroup(TASK_GROUP);
+            task.setDescription("Records the size of the native image as the baseline for its growth budget.");
+            task.dependsOn(nativeImage);
+            task.doLast(new NativeImageSizeReportTask.UpdateBaseline(
+                    nativeImage.flatMap(NativeImageTask::getOutputFile), extension.getImageSizeBaseline()));
+        });
+        // size budgets are only enforced by check once they are configured, as they need a native image built
+        project.getTasks().named(JavaBasePlugin.CHECK_TASK_NAME).configure(check -> check.dependsOn(project.provider(
+                () -> extension.getMaxImageBytes().isPresent() || extension.getMaxImageGrowthPercent().isPresent()
+                        ? Collections.singletonList(sizeReport)
+                        : Collections.emptyList())));
+
+        // a benchmark run to replace the baseline must not fail for exceeding the baseline
+        Property<Boolean> updatingBenchmarkBaseline =
+                project.getObjects().property(Boolean.class).value(false);
+        String updateBenchmarkBaselinePath = project.absoluteProjectPath(UPDATE_BENCHMARK_BASELINE);
+        project.getGradle().getTaskGraph().whenReady(graph -> updatingBenchmarkBaseline.set(
+                graph.hasTask(updateBenchmarkBaselinePath)));
+        TaskProvider<NativeImageBenchmarkTask> benchmark = project.getTasks()
+                .register("benchmarkNativeImage", NativeImageBenchmarkTask.class, task -> {
+                    task.setImage(nativeImage.flatMap(NativeImageTask::getOutputFile));
+                    task.setArgs(extension.getBenchmarkArgs());
+                    task.setIterations(extension.getBenchmarkIterations());
+                    task.setReadinessMarker(extension.getBenchmarkReadinessMarker());
+                    task.setCompareWithJvm(extension.getBenchmarkOnJvm());
+                    task.setGraalVersion(extension.getGraalVersion());
+                    task.setJavaVersion(extension.getJavaVersion());
+                    task.setCacheDir(cacheDir);
+                    task.setJavaExecutable(extractGraal.flatMap(ExtractGraalTask::getOutputDirectory)
+                            .map(graalHome -> ExtractGraalTask.getExecutable(graalHome.getAsFile().toPath(), "java")
+                                    .getAbsolutePath()));
+                    task.setJvmClasspath(project.files(runtimeClasspath, jar));
+                    task.setMainClass(extension.getMainClass());
+                    task.setMaxRegressionPercent(extension.getMaxBenchmarkRegressionPercent());
+                    // as for the size baseline, a missing baseline just means there is nothing to compare with yet
+                    task.setBaseline(extension.getBenchmarkBaseline().map(f -> f.getAsFile().exists() ? f : null));
+                    task.setFailOnRegression(updatingBenchmarkBaseline.map(updating -> !updating));
+                    task.dependsOn(nativeImage);
+                });
+        project.getTasks().register(UPDATE_BENCHMARK_BASELINE, task -> {
+            task.setGroup(TASK_GROUP);
+            task.setDescription("Records the native image benchmark as the baseline for later benchmarks.");
+            task.dependsOn(benchmark);
+            task.doLast(new NativeImageBenchmarkTask.UpdateBaseline(
+                    benchmark.flatMap(NativeImageBenchmarkTask::getReportsDirectory),
+                    extension.getBenchmarkBaseline()));
+        });
+
+        project.getTasks().register("sharedLibrary", SharedLibraryTask.class, task -> {
+            configureCompile.execute(task);
+            task.setOutputName(extension.getOutputName());
+        });
+    }
+
+    /** Returns the configuration files and directories named by native-image options such as reflection config. */
+    private static List<String> configurationFiles(List<String> options) {
+        List<String> files = new ArrayList<>();
+        for (String option : options) {
+            Matcher matcher = CONFIGURATION_FILES_OPTION.matcher(option);
+            if (matcher.matches()) {
+                files.addAll(Arrays.asList(matcher.group(1).split(",", -1)));
+            }
+        }
+        files.removeIf(String::isEmpty);
+        return files;
+    }
+
+    private static Provider<Directory> agentConfigurationDirectory(Project project, String taskName) {
+        return project.getLayout().getBuildDirectory().dir("graal/agent/" + taskName + "/META-INF/native-image");
+    }
+
+    /** Runs {@code task} on the GraalVM JDK with the native-image agent writing its configuration to {@code dir}. */
+    private static void traceWithAgent(
+            Task task,
+            TaskProvider<ExtractGraalTask> extractGraal,
+            UseGraalJava useGraalJava,
+            Provider<Directory> dir) {
+        if (!(task instanceof JavaForkOptions)) {
+            throw new GradleException("Only Test and JavaExec tasks can be traced with the native-image agent, which "
+                    + task.getPath() + " is not");
+        }
+        // the GraalVM installation is only looked up once the task runs, and after it has been extracted
+        task.doFirst(useGraalJava);
+        task.doLast(useGraalJava.release());
+        task.usesService(useGraalJava.provisioningService);
+        ((JavaForkOptions) task).getJvmArgumentProviders().add(new NativeImageAgentArgumentProvider(dir));
+        task.dependsOn(extractGraal);
+    }
+
+    private static String profileTaskName(GraalProfile profile) {
+        return "nativeImage" + Character.toUpperCase(profile.getName().charAt(0)) + profile.getName().substring(1);
+    }
+
+    /**
+     * Forks the JVMs of a {@link JavaForkOptions} task from the {@code java} of a GraalVM installation, which is kept
+     * from being evicted until {@link #release()} runs or the build finishes.
+     */
+    private static final class UseGraalJava implements Action<Task> {
+        private final Provider<Directory> graalHome;
+        private final Path cacheDir;
+        private final Provider<String> graalVersion;
+        private final Provider<String> javaVersion;
+        private final Provider<GraalProvisioningService> provisioningService;
+
+        UseGraalJava(
+                Provider<Directory> graalHome,
+                Path cacheDir,
+                Provider<String> graalVersion,
+                Provider<String> javaVersion,
+                Provider<GraalProvisioningService> provisioningService) {
+            this.graalHome = graalHome;
+            this.cacheDir = cacheDir;
+            this.graalVersion = graalVersion;
+            this.javaVersion = javaVersion;
+            this.provisioningService = provisioningService;
+        }
+
+        @Override
+        public void execute(Task task) {
+            GraalCacheCleaner.recordUse(cacheDir, graalVersion.get(), javaVersion.get(), task.getLogger());
+            try {
+                provisioningService
+                        .get()
+                        .use(
+                                task.getPath(),
+                                GraalCacheLock.lockFile(cacheDir, graalVersion.get(), javaVersion.get()),
+                                task.getLogger());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ((JavaForkOptions) task)
+                    .setExecutable(ExtractGraalTask.getExecutable(graalHome.get().getAsFile().toPath(), "java"));
+        }
+
+        Action<Task> release() {
+            return new ReleaseGraalJava(provisioningService);
+        }
+    }
+
+    /** Lets the GraalVM installation a {@link UseGraalJava} task forked its JVMs from be evicted again. */
+    private static final class ReleaseGraalJava implements Action<Task> {
+        private final Provider<GraalProvisioningService> provisioningService;
+
+        ReleaseGraalJava(Provider<GraalProvisioningService> provisioningService) {
+            this.provisioningService = provisioningService;
+        }
+
+        @Override
+        public void execute(Task task) {
+            provisioningService.get().release(task.getPath());
+        }
     }
 }
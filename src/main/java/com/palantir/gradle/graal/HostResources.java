@@ -0,0 +1,152 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * The memory and processors available to the build, used to size native-image processes.
+ *
+ * <p>Inside a container the machine's totals overstate what a build may use, so the limits of the process's control
+ * group are applied as well, for both cgroup v1 and v2. Every group from the process's own up to the root is checked,
+ * as a limit on any of them applies.</p>
+ */
+final class HostResources {
+    private static final long FALLBACK_MEMORY_MEGABYTES = 8 * 1024;
+    // cgroup v1 reports "no limit" as the largest page-aligned long rather than a marker
+    private static final long UNLIMITED = 1L << 60;
+    private static final Path PROC_SELF_CGROUP = Paths.get("/proc/self/cgroup");
+    private static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+
+    private HostResources() {}
+
+    static long memoryMegabytes() {
+        long physical = FALLBACK_MEMORY_MEGABYTES;
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            long bytes = ((com.sun.management.OperatingSystemMXBean) bean).getTotalPhysicalMemorySize();
+            if (bytes > 0) {
+                physical = bytes / (1024 * 1024);
+            }
+        }
+        OptionalLong limit = cgroupMemoryBytes(PROC_SELF_CGROUP, CGROUP_ROOT);
+        return limit.isPresent() ? Math.min(physical, limit.getAsLong() / (1024 * 1024)) : physical;
+    }
+
+    static int processors() {
+        int available = Runtime.getRuntime().availableProcessors();
+        OptionalInt limit = cgroupProcessors(PROC_SELF_CGROUP, CGROUP_ROOT);
+        return limit.isPresent() ? Math.max(1, Math.min(available, limit.getAsInt())) : available;
+    }
+
+    /** Returns the lowest memory limit, in bytes, of the groups the process belongs to, if there is one. */
+    static OptionalLong cgroupMemoryBytes(Path procSelfCgroup, Path cgroupRoot) {
+        long limit = Long.MAX_VALUE;
+        for (Path group : groups(procSelfCgroup, cgroupRoot, "memory")) {
+            limit = Math.min(limit, readLimit(group.resolve("memory.max")));
+            limit = Math.min(limit, readLimit(group.resolve("memory.limit_in_bytes")));
+        }
+        return limit == Long.MAX_VALUE ? OptionalLong.empty() : OptionalLong.of(limit);
+    }
+
+    /** Returns the lowest CPU quota, rounded up to whole processors, of the groups the process belongs to. */
+    static OptionalInt cgroupProcessors(Path procSelfCgroup, Path cgroupRoot) {
+        double limit = Double.MAX_VALUE;
+        for (Path group : groups(procSelfCgroup, cgroupRoot, "cpu")) {
+            // v2 holds "<quota> <period>" in one file, with a quota of "max" when unlimited
+            List<String> cpuMax = Arrays.asList(read(group.resolve("cpu.max")).split("\\s+"));
+            if (cpuMax.size() == 2) {
+                limit = Math.min(limit, quota(parse(cpuMax.get(0)), parse(cpuMax.get(1))));
+            }
+            // v1 splits them over two files, with a quota of -1 when unlimited
+            limit = Math.min(
+                    limit,
+                    quota(
+                            parse(read(group.resolve("cpu.cfs_quota_us"))),
+                            parse(read(group.resolve("cpu.cfs_period_us")))));
+        }
+        return limit == Double.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) Math.ceil(limit));
+    }
+
+    private static double quota(long quota, long period) {
+        return quota > 0 && quota < UNLIMITED && period > 0 ? (double) quota / period : Double.MAX_VALUE;
+    }
+
+    /**
+     * Returns the directories of every group, from the process's own up to the root, of {@code controller}. Under
+     * v1 each controller has its own hierarchy, under v2 all controllers share the {@code 0::} one.
+     */
+    private static List<Path> groups(Path procSelfCgroup, Path cgroupRoot, String controller) {
+        List<Path> groups = new ArrayList<>();
+        for (String line : read(procSelfCgroup).split("\n")) {
+            String[] fields = line.split(":", 3);
+            if (fields.length != 3) {
+                continue;
+            }
+            Path hierarchy;
+            if (fields[0].equals("0") && fields[1].isEmpty()) {
+                hierarchy = cgroupRoot;
+            } else if (Arrays.asList(fields[1].split(",")).contains(controller)) {
+                hierarchy = cgroupRoot.resolve(controller);
+            } else {
+                continue;
+            }
+            // a namespaced container sees its own group as the root, so the full path may not exist
+            for (Path group = hierarchy.resolve(fields[2].replaceFirst("^/+", ""));
+                    group != null && group.startsWith(hierarchy);
+                    group = group.getParent()) {
+                if (Files.isDirectory(group)) {
+                    groups.add(group);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private static long readLimit(Path file) {
+        long limit = parse(read(file));
+        return limit > 0 && limit < UNLIMITED ? limit : Long.MAX_VALUE;
+    }
+
+    private static long parse(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            // "max" and missing files alike mean no limit
+            return -1;
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import groovy.json.JsonSlurper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Attributes the size of a native image to its sections, packages and classes, from the dashboard dump native-image
+ * writes with {@code -H:+DashboardCode -H:+DashboardHeap -H:+DashboardJson}.
+ *
+ * <p>Compiled code is attributed to the class declaring each method, and the image heap to the class of each object.
+ * Whatever neither accounts for, such as relocation tables and metadata, is reported as the {@code other} section.</p>
+ */
+final class ImageSizeBreakdown {
+    private final long imageBytes;
+    private final Map<String, long[]> classes = new TreeMap<>();
+
+    private ImageSizeBreakdown(long imageBytes) {
+        this.imageBytes = imageBytes;
+    }
+
+    static ImageSizeBreakdown fromDashboard(File dashboardDump, long imageBytes) {
+        ImageSizeBreakdown breakdown = new ImageSizeBreakdown(imageBytes);
+        Object dump = new JsonSlurper().parse(dashboardDump, StandardCharsets.UTF_8.name());
+        for (Map<?, ?> method : entries(dump, "code-breakdown", "code-size")) {
+            breakdown.add(declaringClass(String.valueOf(method.get("name"))), 0, size(method));
+        }
+        for (Map<?, ?> type : entries(dump, "heap-breakdown", "heap-size")) {
+            breakdown.add(String.valueOf(type.get("name")), 1, size(type));
+        }
+        return breakdown;
+    }
+
+    private void add(String className, int section, long bytes) {
+        classes.computeIfAbsent(className, _name -> new long[2])[section] += bytes;
+    }
+
+    long getImageBytes() {
+        return imageBytes;
+    }
+
+    long getCodeBytes() {
+        return classes.values().stream().mapToLong(sizes -> sizes[0]).sum();
+    }
+
+    long getHeapBytes() {
+        return classes.values().stream().mapToLong(sizes -> sizes[1]).sum();
+    }
+
+    /** Returns the code and heap bytes of each package, largest first. */
+    Map<String, long[]> byPackage() {
+        Map<String, long[]> packages = new TreeMap<>();
+        classes.forEach((className, sizes) -> {
+            long[] packageSizes = packages.computeIfAbsent(packageOf(className), _name -> new long[2]);
+            packageSizes[0] += sizes[0];
+            packageSizes[1] += sizes[1];
+        });
+        return largestFirst(packages);
+    }
+
+    /** Returns the code and heap bytes of each class, largest first. */
+    Map<String, long[]> byClass() {
+        return largestFirst(classes);
+    }
+
+    void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long code = getCodeBytes();
+        long heap = getHeapBytes();
+        String sections = "section,bytes\n"
+                + "code," + code + "\n"
+                + "heap," + heap + "\n"
+                + "other," + Math.max(0, imageBytes - code - heap) + "\n"
+                + "total," + imageBytes + "\n";
+        Files.write(directory.resolve("size-by-section.csv"), sections.getBytes(StandardCharsets.UTF_8));
+        writeTable(directory.resolve("size-by-package.csv"), "package", byPackage());
+        writeTable(directory.resolve("size-by-class.csv"), "class", byClass());
+    }
+
+    private static void writeTable(Path file, String kind, Map<String, long[]> rows) throws IOException {
+        StringBuilder csv = new StringBuilder(kind).append(",codeBytes,heapBytes,totalBytes\n");
+        rows.forEach((name, sizes) -> csv.append(name.contains(",") ? "\"" + name + "\"" : name)
+                .append(',')
+                .append(sizes[0])
+                .append(',')
+                .append(sizes[1])
+                .append(',')
+                .append(sizes[0] + sizes[1])
+                .append('\n'));
+        Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, long[]> largestFirst(Map<String, long[]> sizes) {
+        return sizes.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, long[]> entry) ->
+                                entry.getValue()[0] + entry.getValue()[1])
+                        .reversed())
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey, Map.Entry::getValue, (first, _second) -> first, LinkedHashMap::new));
+    }
+
+    private static List<Map<?, ?>> entries(Object dump, String breakdown, String sizes) {
+        if (dump instanceof Map && ((Map<?, ?>) dump).get(breakdown) instanceof Map) {
+            Object entries = ((Map<?, ?>) ((Map<?, ?>) dump).get(breakdown)).get(sizes);
+            if (entries instanceof Collection) {
+                return ((Collection<?>) entries)
+                        .stream()
+                        .filter(Map.class::isInstance)
+                        .map(entry -> (Map<?, ?>) entry)
+                        .collect(Collectors.toList());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static long size(Map<?, ?> entry) {
+        Object size = entry.get("size");
+        return size instanceof Number ? ((Number) size).longValue() : 0;
+    }
+
+    /** Returns the class of a method name such as {@code java.lang.String.indexOf(int, int)}. */
+    static String declaringClass(String methodName) {
+        int parameters = methodName.indexOf('(');
+        String qualifiedName = parameters < 0 ? methodName : methodName.substring(0, parameters);
+        int method = qualifiedName.lastIndexOf('.');
+        return method < 0 ? qualifiedName : qualifiedName.substring(0, method);
+    }
+
+    static String packageOf(String className) {
+        int simpleName = className.lastIndexOf('.');
+        return simpleName < 0 ? "(default)" : className.substring(0, simpleName);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.util.Collections;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * Runs a JVM with GraalVM's {@code native-image-agent}, which records the reflection, JNI, proxy and resource
+ * configuration native-image needs for the code the JVM executes.
+ *
+ * <p>The agent merges what it records into the configuration already in the directory, so the configuration covers
+ * every JVM a task forks, such as parallel test workers, and every run of the task until the next {@code clean}.</p>
+ */
+public final class NativeImageAgentArgumentProvider implements CommandLineArgumentProvider {
+    private final Provider<Directory> configurationDirectory;
+
+    NativeImageAgentArgumentProvider(Provider<Directory> configurationDirectory) {
+        this.configurationDirectory = configurationDirectory;
+    }
+
+    @OutputDirectory
+    public Provider<Directory> getConfigurationDirectory() {
+        return configurationDirectory;
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+        return Collections.singletonList(
+                "-agentlib:native-image-agent=config-merge-dir="
+                        + configurationDirectory.get().getAsFile().getAbsolutePath());
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Runs the native image a number of times, and reports the percentiles of its startup time, peak memory and CPU time,
+ * optionally next to those of the same main class on the JVM of the GraalVM distribution.
+ *
+ * <p>The median startup time and peak memory of the native image can be checked against a baseline, so that
+ * regressions fail the build. Benchmarks measure the machine as much as the image, so this task never counts as up to
+ * date.</p>
+ */
+public class NativeImageBenchmarkTask extends DefaultTask {
+    static final String SUMMARY_FILE = "benchmark-summary.properties";
+    private static final List<String> GATED_METRICS = Arrays.asList("wallMillis", "peakRssKilobytes");
+
+    private final RegularFileProperty image = getProject().getObjects().fileProperty();
+    private final ListProperty<String> args = getProject().getObjects().listProperty(String.class);
+    private final Property<Integer> iterations = getProject().getObjects().property(Integer.class);
+    private final Property<String> readinessMarker = getProject().getObjects().property(String.class);
+    private final Property<Boolean> compareWithJvm = getProject().getObjects().property(Boolean.class);
+    private final Property<String> javaExecutable = getProject().getObjects().property(String.class);
+    private final Property<Path> cacheDir = getProject().getObjects().property(Path.class);
+    private final Property<String> graalVersion = getProject().getObjects().property(String.class);
+    private final Property<String> javaVersion = getProject().getObjects().property(String.class);
+    private final ConfigurableFileCollection jvmClasspath = getProject().files();
+    private final Property<String> mainClass = getProject().getObjects().property(String.class);
+    private final RegularFileProperty baseline = getProject().getObjects().fileProperty();
+    private final Property<Double> maxRegressionPercent = getProject().getObjects().property(Double.class);
+    private final Property<Boolean> failOnRegression = getProject().getObjects().property(Boolean.class);
+    private final DirectoryProperty reportsDirectory = getProject().getObjects().directoryProperty();
+
+    public NativeImageBenchmarkTask() {
+        setGroup(GradleGraalPlugin.TASK_GROUP);
+        setDescription("Measures the startup time, peak memory and CPU time of the native image.");
+        reportsDirectory.set(getProject().getLayout().getBuildDirectory().dir("graal/reports/" + getName()));
+        getOutputs().upToDateWhen(_task -> false);
+    }
+
+    @TaskAction
+    public final void benchmark() throws IOException {
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        List<String> nativeCommandLine = new ArrayList<>();
+        nativeCommandLine.add(image.get().getAsFile().getAbsolutePath());
+        nativeCommandLine.addAll(args.get());
+        variants.put("native", nativeCommandLine);
+        if (compareWithJvm.get()) {
+            List<String> jvmCommandLine = new ArrayList<>();
+            jvmCommandLine.add(javaExecutable.get());
+            jvmCommandLine.add("-cp");
+            jvmCommandLine.add(jvmClasspath.getAsPath());
+            jvmCommandLine.add(mainClass.get());
+            jvmCommandLine.addAll(args.get());
+            variants.put("jvm", jvmCommandLine);
+        }
+
+        StringBuilder runsCsv = new StringBuilder("variant,run,wallMillis,peakRssKilobytes,userMillis,systemMillis\n");
+        StringBuilder summaryCsv = new StringBuilder("variant,metric," + String.join(",", StartupBenchmark.PERCENTILES)
+                + "\n");
+        Properties summary = new Properties();
+        for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+            List<StartupBenchmark.Run> runs = variant.getKey().equals("jvm")
+                    ? measureOnGraalJvm(variant.getValue())
+                    : measure(variant.getValue());
+            for (int i = 0; i < runs.size(); i++) {
+                runsCsv.append(variant.getKey())
+                        .append(',')
+                        .append(i)
+                        .append(',')
+                        .append(runs.get(i).toCsv())
+                        .append('\n');
+            }
+            StartupBenchmark.summarize(runs).forEach((metric, percentiles) -> {
+                summaryCsv.append(variant.getKey()).append(',').append(metric);
+                for (String percentile : StartupBenchmark.PERCENTILES) {
+                    long value = percentiles.get(percentile);
+                    summaryCsv.append(',').append(value);
+                    summary.setProperty(variant.getKey() + "." + metric + "." + percentile, Long.toString(value));
+                }
+                summaryCsv.append('\n');
+                getLogger().lifecycle("{} {}: p50 {}, p90 {}", variant.getKey(), metric,
+                        percentiles.get("p50"), percentiles.get("p90"));
+            });
+        }
+
+        Path reports = reportsDirectory.get().getAsFile().toPath();
+        Files.createDirectories(reports);
+        Files.write(reports.resolve("benchmark-runs.csv"), runsCsv.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(reports.resolve("benchmark-summary.csv"), summaryCsv.toString().getBytes(StandardCharsets.UTF_8));
+        try (OutputStream out = Files.newOutputStream(reports.resolve(SUMMARY_FILE))) {
+            summary.store(out, "Native image benchmark");
+        }
+
+        if (maxRegressionPercent.isPresent() && baseline.isPresent() && failOnRegression.getOrElse(true)) {
+            checkRegressions(summary, load(baseline.get().getAsFile().toPath()));
+        }
+    }
+
+    /** Keeps the GraalVM distribution whose JVM is measured from being evicted while it runs. */
+    private List<StartupBenchmark.Run> measureOnGraalJvm(List<String> commandLine) throws IOException {
+        GraalCacheCleaner.recordUse(cacheDir.get(), graalVersion.get(), javaVersion.get(), getLogger());
+        try (GraalCacheLock _lock = GraalCacheLock.acquireShared(
+                GraalCacheLock.lockFile(cacheDir.get(), graalVersion.get(), javaVersion.get()), getLogger())) {
+            return measure(commandLine);
+        }
+    }
+
+    private List<StartupBenchmark.Run> measure(List<String> commandLine) throws IOException {
+        // the first run pays for cold caches, which is not what is being measured
+        StartupBenchmark.measure(commandLine, Optional.ofNullable(readinessMarker.getOrNull()));
+        List<StartupBenchmark.Run> runs = new ArrayList<>();
+        for (int i = 0; i < iterations.get(); i++) {
+            runs.add(StartupBenchmark.measure(commandLine, Optional.ofNullable(readinessMarker.getOrNull())));
+        }
+        return runs;
+    }
+
+    private void checkRegressions(Properties summary, Properties baselineSummary) {
+        List<String> regressions = new ArrayList<>();
+        for (String metric : GATED_METRICS) {
+            String key = "native." + metric + ".p50";
+            String current = summary.getProperty(key);
+            String previous = baselineSummary.getProperty(key);
+            if (previous == null) {
+                continue;
+            }
+            if (current == null) {
+                // a gate that cannot be checked must not pass silently
+                regressions.add(key + " is in the baseline but was not measured in any run; the image may exit"
+                        + " before it can be sampled, which a readiness marker and a longer workload avoid");
+                continue;
+            }
+            double regressionPercent = 100.0 * (Long.parseLong(current) - Long.parseLong(previous))
+                    / Math.max(Long.parseLong(previous), 1);
+            if (regressionPercent > maxRegressionPercent.get()) {
+                regressions.add(String.format(
+                        "%s rose by %.1f%% from %s to %s", key, regressionPercent, previous, current));
+            }
+        }
+        if (!regressions.isEmpty()) {
+            throw new GradleException(String.format(
+                    "Native image benchmark regressed by more than the allowed %.1f%%, or could not be checked; run"
+                            + " updateNativeImageBenchmarkBaseline to accept the new results:\n  %s",
+                    maxRegressionPercent.get(),
+                    String.join("\n  ", regressions)));
+        }
+    }
+
+    private static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final Provider<RegularFile> getImage() {
+        return image;
+    }
+
+    public final void setImage(Provider<RegularFile> provider) {
+        image.set(provider);
+    }
+
+    @Input
+    public final ListProperty<String> getArgs() {
+        return args;
+    }
+
+    public final void setArgs(Provider<List<String>> provider) {
+        args.set(provider);
+    }
+
+    @Input
+    public final Provider<Integer> getIterations() {
+        return iterations;
+    }
+
+    public final void setIterations(Provider<Integer> provider) {
+        iterations.set(provider);
+    }
+
+    /** Returns the text that marks the program as started; without it, startup lasts until the program exits. */
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getReadinessMarker() {
+        return readinessMarker;
+    }
+
+    public final void setReadinessMarker(Provider<String> provider) {
+        readinessMarker.set(provider);
+    }
+
+    @Input
+    public final Provider<Boolean> getCompareWithJvm() {
+        return compareWithJvm;
+    }
+
+    public final void setCompareWithJvm(Provider<Boolean> provider) {
+        compareWithJvm.set(provider);
+    }
+
+    /** Returns the {@code java} executable of the GraalVM distribution, which the JVM comparison runs on. */
+    @Internal
+    public final Provider<String> getJavaExecutable() {
+        return javaExecutable;
+    }
+
+    public final void setJavaExecutable(Provider<String> provider) {
+        javaExecutable.set(provider);
+    }
+
+    @Internal
+    public final Provider<String> getGraalVersion() {
+        return graalVersion;
+    }
+
+    public final void setGraalVersion(Provider<String> provider) {
+        graalVersion.set(provider);
+    }
+
+    @Internal
+    public final Provider<String> getJavaVersion() {
+        return javaVersion;
+    }
+
+    public final void setJavaVersion(Provider<String> provider) {
+        javaVersion.set(provider);
+    }
+
+    final void setCacheDir(Path value) {
+        cacheDir.set(value);
+    }
+
+    @Classpath
+    public final FileCollection getJvmClasspath() {
+        return jvmClasspath;
+    }
+
+    public final void setJvmClasspath(FileCollection files) {
+        jvmClasspath.setFrom(files);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<String> getMainClass() {
+        return mainClass;
+    }
+
+    public final void setMainClass(Provider<String> provider) {
+        mainClass.set(provider);
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @org.gradle.api.tasks.Optional
+    public final Provider<RegularFile> getBaseline() {
+        return baseline;
+    }
+
+    public final void setBaseline(Provider<RegularFile> provider) {
+        baseline.set(provider);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<Double> getMaxRegressionPercent() {
+        return maxRegressionPercent;
+    }
+
+    public final void setMaxRegressionPercent(Provider<Double> provider) {
+        maxRegressionPercent.set(provider);
+    }
+
+    /** Returns whether regressions over the baseline fail the task, which they do unless it is being replaced. */
+    @Internal
+    public final Provider<Boolean> getFailOnRegression() {
+        return failOnRegression;
+    }
+
+    public final void setFailOnRegression(Provider<Boolean> provider) {
+        failOnRegression.set(provider);
+    }
+
+    @OutputDirectory
+    public final Provider<Directory> getReportsDirectory() {
+        return reportsDirectory;
+    }
+
+    /** Records the results of the last benchmark as the baseline later ones are checked against. */
+    static final class UpdateBaseline implements Action<Task> {
+        private final Provider<Directory> reports;
+        private final Provider<RegularFile> baselineFile;
+
+        UpdateBaseline(Provider<Directory> reports, Provider<RegularFile> baselineFile) {
+            this.reports = reports;
+            this.baselineFile = baselineFile;
+        }
+
+        @Override
+        public void execute(Task task) {
+            if (!baselineFile.isPresent()) {
+                throw new GradleException("No benchmark baseline is configured, set graal.benchmarkBaseline first");
+            }
+            File baselinePath = baselineFile.get().getAsFile();
+            try {
+                Files.createDirectories(baselinePath.getParentFile().toPath());
+                Files.copy(
+                        reports.get().file(SUMMARY_FILE).getAsFile().toPath(),
+                        baselinePath.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            task.getLogger().lifecycle("Recorded the native image benchmark in {}", baselinePath);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The phase timings, memory use, reachability counts and section sizes that native-image prints while it builds.
+ *
+ * <p>Both output formats are understood: the one-line-per-phase format of GraalVM 21 and older
+ * ({@code [name:pid]    analysis:   6,543.21 ms,  1.23 GB}), and the numbered steps of GraalVM 22 and newer
+ * ({@code [2/7] Performing analysis...   (15.3s @ 1.10GB)}) along with their summaries. Anything a version does not
+ * print is left out of the report.</p>
+ */
+final class NativeImageBuildReport {
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[;\\d]*m");
+    private static final Pattern LEGACY_PHASE =
+            Pattern.compile("^\\[[^]]+]\\s+(\\(?[\\w ]+\\)?|\\[total]):\\s+([\\d,.]+) ms,\\s+([\\d,.]+) GB\\s*$");
+    private static final Pattern STEP =
+            Pattern.compile("^\\[\\d+/\\d+] ([A-Za-z ]+?)\\.\\.\\..*\\(([\\d.]+)s @ ([\\d.]+)GB\\)\\s*$");
+    private static final Pattern REACHABLE_OF =
+            Pattern.compile("^\\s*([\\d,]+) \\([\\d.]+%\\) of\\s+[\\d,]+ (types|classes|fields|methods) reachable.*");
+    private static final Pattern REACHABLE =
+            Pattern.compile("^\\s*([\\d,]+) reachable (types|classes|fields|methods).*");
+    private static final Pattern SECTION =
+            Pattern.compile("^\\s*([\\d.]+)([kMG]?B) \\([\\d.]+%\\) for (code area|image heap|other data).*");
+    private static final Pattern PEAK_RSS = Pattern.compile(".*Peak RSS: ([\\d.]+)([kMG]?B).*");
+
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private final Map<String, Long> reachable = new LinkedHashMap<>();
+    private final Map<String, Long> sectionBytes = new LinkedHashMap<>();
+    private long peakMemoryBytes;
+    private long imageBytes;
+    private long totalMillis;
+
+    static NativeImageBuildReport parse(String output, long imageBytes, long totalMillis) {
+        NativeImageBuildReport report = new NativeImageBuildReport();
+        report.imageBytes = imageBytes;
+        report.totalMillis = totalMillis;
+        for (String rawLine : output.split("\\r?\\n")) {
+            report.parseLine(ANSI_ESCAPE.matcher(rawLine).replaceAll(""));
+        }
+        return report;
+    }
+
+    private void parseLine(String line) {
+        Matcher matcher = LEGACY_PHASE.matcher(line);
+        if (matcher.matches()) {
+            // sub-phases keep their parentheses, as some share a name with a phase, like (compile) and compile
+            String phase = matcher.group(1).equals("[total]") ? "total" : matcher.group(1).trim();
+            phaseMillis.put(phase, Math.round(parseNumber(matcher.group(2))));
+            peakMemory(toBytes(parseNumber(matcher.group(3)), "GB"));
+            return;
+        }
+        matcher = STEP.matcher(line);
+        if (matcher.matches()) {
+            phaseMillis.put(
+                    matcher.group(1).trim().toLowerCase(Locale.ROOT), Math.round(parseNumber(matcher.group(2)) * 1000));
+            peakMemory(toBytes(parseNumber(matcher.group(3)), "GB"));
+            return;
+        }
+        matcher = REACHABLE_OF.matcher(line);
+        if (!matcher.matches()) {
+            matcher = REACHABLE.matcher(line);
+        }
+        if (matcher.matches()) {
+            String kind = matcher.group(2).equals("classes") ? "types" : matcher.group(2);
+            reachable.put(kind, Math.round(parseNumber(matcher.group(1))));
+            return;
+        }
+        matcher = SECTION.matcher(line);
+        if (matcher.matches()) {
+            sectionBytes.put(matcher.group(3), toBytes(parseNumber(matcher.group(1)), matcher.group(2)));
+            return;
+        }
+        matcher = PEAK_RSS.matcher(line);
+        if (matcher.matches()) {
+            // the resident set size covers more than the heap sizes printed per phase
+            peakMemory(toBytes(parseNumber(matcher.group(1)), matcher.group(2)));
+        }
+    }
+
+    private void peakMemory(long bytes) {
+        peakMemoryBytes = Math.max(peakMemoryBytes, bytes);
+    }
+
+    Map<String, Long> getPhaseMillis() {
+        return phaseMillis;
+    }
+
+    Map<String, Long> getReachable() {
+        return reachable;
+    }
+
+    Map<String, Long> getSectionBytes() {
+        return sectionBytes;
+    }
+
+    OptionalLong getPeakMemoryBytes() {
+        return peakMemoryBytes > 0 ? OptionalLong.of(peakMemoryBytes) : OptionalLong.empty();
+    }
+
+    void writeJson(Path file) throws IOException {
+        List<String> fields = new ArrayList<>();
+        fields.add("\"imageBytes\": " + imageBytes);
+        fields.add("\"totalMillis\": " + totalMillis);
+        if (peakMemoryBytes > 0) {
+            fields.add("\"peakMemoryBytes\": " + peakMemoryBytes);
+        }
+        fields.add("\"phaseMillis\": " + toJson(phaseMillis));
+        fields.add("\"reachable\": " + toJson(reachable));
+        fields.add("\"sectionBytes\": " + toJson(sectionBytes));
+        write(file, fields.stream().collect(Collectors.joining(",\n  ", "{\n  ", "\n}\n")));
+    }
+
+    void writeCsv(Path file) throws IOException {
+        StringBuilder csv = new StringBuilder("category,name,value,unit\n");
+        csv.append("image,size,").append(imageBytes).append(",bytes\n");
+        csv.append("build,wall clock,").append(totalMillis).append(",ms\n");
+        if (peakMemoryBytes > 0) {
+            csv.append("memory,peak,").append(peakMemoryBytes).append(",bytes\n");
+        }
+        phaseMillis.forEach((phase, millis) -> csv.append("phase,")
+                .append(phase)
+                .append(',')
+                .append(millis)
+                .append(",ms\n"));
+        reachable.forEach((kind, count) -> csv.append("reachable,")
+                .append(kind)
+                .append(',')
+                .append(count)
+                .append(",count\n"));
+        sectionBytes.forEach((section, bytes) -> csv.append("section,")
+                .append(section)
+                .append(',')
+                .append(bytes)
+                .append(",bytes\n"));
+        write(file, csv.toString());
+    }
+
+    private static String toJson(Map<String, Long> values) {
+        return values.entrySet().stream()
+                .map(entry -> "\"" + entry.getKey() + "\": " + entry.getValue())
+                .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static double parseNumber(String number) {
+        return Double.parseDouble(number.replace(",", ""));
+    }
+
+    private static long toBytes(double value, String unit) {
+        switch (unit) {
+            case "kB":
+                return Math.round(value * 1024);
+            case "MB":
+                return Math.round(value * 1024 * 1024);
+            case "GB":
+                return Math.round(value * 1024 * 1024 * 1024);
+            default:
+                return Math.round(value);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Breaks the size of the native image down by section, package and class, and fails if it exceeds the configured
+ * budgets: a maximum size, and a maximum growth over a stored baseline.
+ *
+ * <p>The package and class breakdown needs the dashboard dump that {@code nativeImage} only writes when
+ * {@code sizeBreakdown} is enabled; without it, only the budgets are checked.</p>
+ */
+public class NativeImageSizeReportTask extends DefaultTask {
+    static final String SUMMARY_FILE = "size-summary.properties";
+    private static final String IMAGE_BYTES = "imageBytes";
+    private static final int LARGEST_PACKAGES = 10;
+
+    private final RegularFileProperty imageFile = getProject().getObjects().fileProperty();
+    private final ConfigurableFileCollection dashboardDump = getProject().files();
+    private final Property<Long> maxImageBytes = getProject().getObjects().property(Long.class);
+    private final Property<Double> maxGrowthPercent = getProject().getObjects().property(Double.class);
+    private final RegularFileProperty baseline = getProject().getObjects().fileProperty();
+    private final DirectoryProperty reportsDirectory = getProject().getObjects().directoryProperty();
+
+    public NativeImageSizeReportTask() {
+        setGroup(GradleGraalPlugin.TASK_GROUP);
+        setDescription("Breaks the native image size down by section, package and class, and checks it against the"
+                + " configured size budgets.");
+        reportsDirectory.set(getProject().getLayout().getBuildDirectory().dir("graal/reports/" + getName()));
+    }
+
+    @TaskAction
+    public final void reportSize() throws IOException {
+        Path reports = reportsDirectory.get().getAsFile().toPath();
+        long imageBytes = Files.size(imageFile.get().getAsFile().toPath());
+        Optional<ImageSizeBreakdown> breakdown = dashboardDump.getFiles().stream()
+                .filter(File::isFile)
+                .findFirst()
+                .map(dump -> ImageSizeBreakdown.fromDashboard(dump, imageBytes));
+        if (breakdown.isPresent()) {
+            breakdown.get().write(reports);
+        } else {
+            getLogger().info("No dashboard dump found, enable sizeBreakdown for a package and class breakdown");
+        }
+
+        writeSummary(imageBytes, reports.resolve(SUMMARY_FILE));
+
+        if (maxImageBytes.isPresent() && imageBytes > maxImageBytes.get()) {
+            throw new GradleException(String.format(
+                    "Native image is %d bytes, over its budget of %d bytes%s",
+                    imageBytes, maxImageBytes.get(), largestPackages(breakdown)));
+        }
+        if (maxGrowthPercent.isPresent() && baseline.isPresent()) {
+            long baselineBytes = readBaseline(baseline.get().getAsFile().toPath());
+            double growthPercent = 100.0 * (imageBytes - baselineBytes) / baselineBytes;
+            if (growthPercent > maxGrowthPercent.get()) {
+                throw new GradleException(String.format(
+                        "Native image grew by %.1f%% from %d to %d bytes, more than the allowed %.1f%%; run"
+                                + " updateNativeImageSizeBaseline to accept the new size%s",
+                        growthPercent,
+                        baselineBytes,
+                        imageBytes,
+                        maxGrowthPercent.get(),
+                        largestPackages(breakdown)));
+            }
+        }
+    }
+
+    private static String largestPackages(Optional<ImageSizeBreakdown> breakdown) {
+        return breakdown
+                .map(sizes -> sizes.byPackage().entrySet().stream()
+                        .limit(LARGEST_PACKAGES)
+                        .map(entry -> entry.getKey() + ": " + (entry.getValue()[0] + entry.getValue()[1]) + " bytes")
+                        .collect(Collectors.joining("\n  ", "\nLargest packages:\n  ", "")))
+                .orElse("");
+    }
+
+    private static void writeSummary(long imageBytes, Path file) throws IOException {
+        Properties summary = new Properties();
+        summary.setProperty(IMAGE_BYTES, Long.toString(imageBytes));
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            summary.store(out, "Native image size");
+        }
+    }
+
+    static long readBaseline(Path file) throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            baseline.load(in);
+        }
+        String imageBytes = baseline.getProperty(IMAGE_BYTES);
+        if (imageBytes == null) {
+            throw new GradleException("Size baseline " + file + " does not contain " + IMAGE_BYTES);
+        }
+        long baselineBytes = Long.parseLong(imageBytes.trim());
+        if (baselineBytes <= 0) {
+            // growth is measured relative to the baseline, so it has to be the size of an actual image
+            throw new GradleException("Size baseline " + file + " records " + baselineBytes + " bytes, which is not"
+                    + " the size of an image; run updateNativeImageSizeBaseline to record the current size");
+        }
+        return baselineBytes;
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final Provider<RegularFile> getImageFile() {
+        return imageFile;
+    }
+
+    public final void setImageFile(Provider<RegularFile> provider) {
+        imageFile.set(provider);
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public final FileCollection getDashboardDump() {
+        return dashboardDump;
+    }
+
+    public final void setDashboardDump(Object files) {
+        dashboardDump.setFrom(files);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<Long> getMaxImageBytes() {
+        return maxImageBytes;
+    }
+
+    public final void setMaxImageBytes(Provider<Long> provider) {
+        maxImageBytes.set(provider);
+    }
+
+    @Input
+    @org.gradle.api.tasks.Optional
+    public final Provider<Double> getMaxGrowthPercent() {
+        return maxGrowthPercent;
+    }
+
+    public final void setMaxGrowthPercent(Provider<Double> provider) {
+        maxGrowthPercent.set(provider);
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @org.gradle.api.tasks.Optional
+    public final Provider<RegularFile> getBaseline() {
+        return baseline;
+    }
+
+    public final void setBaseline(Provider<RegularFile> provider) {
+        baseline.set(provider);
+    }
+
+    @OutputDirectory
+    public final Provider<Directory> getReportsDirectory() {
+        return reportsDirectory;
+    }
+
+    /** Records the size of an image as the baseline its growth is measured against. */
+    static final class UpdateBaseline implements Action<Task> {
+        private final Provider<RegularFile> image;
+        private final Provider<RegularFile> baselineFile;
+
+        UpdateBaseline(Provider<RegularFile> image, Provider<RegularFile> baselineFile) {
+            this.image = image;
+            this.baselineFile = baselineFile;
+        }
+
+        @Override
+        public void execute(Task task) {
+            if (!baselineFile.isPresent()) {
+                throw new GradleException("No size baseline is configured, set graal.imageSizeBaseline first");
+            }
+            Path baselinePath = baselineFile.get().getAsFile().toPath();
+            try {
+                writeSummary(Files.size(image.get().getAsFile().toPath()), baselinePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            task.getLogger().lifecycle("Recorded the native image size in {}", baselinePath);
+        }
+    }
+}
@@ -16,28 +16,37 @@
 
 package com.palantir.gradle.graal;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import org.gradle.api.Action;
-import org.gradle.api.Task;
+import java.util.stream.Collectors;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 /**
  * Runs GraalVM's native-image command with configured options and parameters.
  */
-public class NativeImageTask extends BaseGraalCompileTask {
+@CacheableTask
+public abstract class NativeImageTask extends BaseGraalCompileTask {
+
+    static final String DASHBOARD_DUMP = "dashboard";
 
     private final Property<String> mainClass = getProject().getObjects().property(String.class);
+    private final Property<Boolean> sizeBreakdown = getProject().getObjects().property(Boolean.class);
+    private final Property<Boolean> pgoInstrument = getProject().getObjects().property(Boolean.class);
+    private final ConfigurableFileCollection pgoProfiles = getProject().files();
 
     public NativeImageTask() {
         setDescription("Runs GraalVM's native-image command with configured options and parameters.");
-
-        // must use an anonymous inner class instead of a lambda to get Gradle staleness checking
-        doLast(new LogAction());
     }
 
     /**
@@ -63,12 +72,22 @@ public class NativeImageTask extends BaseGraalCompileTask {
     public final void nativeImage() throws IOException {
         List<String> args = new ArrayList<>();
         configureArgs(args);
+        if (sizeBreakdown.getOrElse(false)) {
+            // code and heap sizes per method and class, read by the nativeImageSizeReport task
+            args.add("-H:+DashboardCode");
+            args.add("-H:+DashboardHeap");
+            args.add("-H:+DashboardJson");
+            args.add("-H:DashboardDump=" + getReportsDirectory().get().file(DASHBOARD_DUMP).getAsFile());
+        }
+        if (pgoInstrument.getOrElse(false)) {
+            args.add("--pgo-instrument");
+        } else if (!pgoProfiles.isEmpty()) {
+            args.add("--pgo=" + pgoProfiles.getFiles().stream()
+                    .map(File::getAbsolutePath)
+                    .collect(Collectors.joining(",")));
+        }
         args.add(mainClass.get());
-        getProject().exec(spec -> {
-            spec.setExecutable(getExecutable());
-            spec.setArgs(args);
-            configurePlatformSpecifics(spec);
-        });
+        compile(args, "native image");
     }
 
     @Input
@@ -80,14 +99,36 @@ public class NativeImageTask extends BaseGraalCompileTask {
         mainClass.set(provider);
     }
 
-    private final class LogAction implements Action<Task> {
-        @Override
-        public void execute(Task _task) {
-            getLogger()
-                    .warn(
-                            "native image available at {} ({} MB)",
-                            getProject().relativePath(getOutputFile().get().getAsFile()),
-                            fileSizeMegabytes(getOutputFile().get()));
-        }
+    @Input
+    public final Provider<Boolean> getSizeBreakdown() {
+        return sizeBreakdown;
+    }
+
+    public final void setSizeBreakdown(Provider<Boolean> provider) {
+        sizeBreakdown.set(provider);
+    }
+
+    /** Returns whether this builds an image that records a profile of its own execution, for use with PGO. */
+    @Input
+    public final Provider<Boolean> getPgoInstrument() {
+        return pgoInstrument;
+    }
+
+    public final void setPgoInstrument(Provider<Boolean> provider) {
+        pgoInstrument.set(provider);
+    }
+
+    /**
+     * Returns the {@code .iprof} profiles the image is optimized with, if any. Only their contents matter, so images
+     * stay up to date and cacheable wherever the profiles were collected.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public final FileCollection getPgoProfiles() {
+        return pgoProfiles;
+    }
+
+    public final void setPgoProfiles(FileCollection files) {
+        pgoProfiles.setFrom(files);
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Trims the classpath handed to native-image down to the classes reachable from the project's own classes, see
+ * {@link ClasspathPruner}.
+ */
+@CacheableTask
+public class PruneClasspathTask extends DefaultTask {
+    private final ConfigurableFileCollection classpath = getProject().files();
+    private final ConfigurableFileCollection rootClasspath = getProject().files();
+    private final ListProperty<String> rootClassNames = getProject().getObjects().listProperty(String.class);
+    private final ConfigurableFileCollection configurationFiles = getProject().files();
+    private final DirectoryProperty outputDirectory = getProject().getObjects().directoryProperty();
+
+    public PruneClasspathTask() {
+        setGroup(GradleGraalPlugin.TASK_GROUP);
+        setDescription("Trims the native-image classpath to the classes reachable from the project's classes.");
+        outputDirectory.set(getProject().getLayout().getBuildDirectory().dir("graal/classpath"));
+    }
+
+    @TaskAction
+    public final void pruneClasspath() throws IOException {
+        // the same order as the compile tasks use, as the first of several classes with the same name wins
+        Set<File> files = new LinkedHashSet<>(classpath.getFiles());
+        files.addAll(rootClasspath.getFiles());
+        ClasspathPruner.Result result = ClasspathPruner.prune(
+                new ArrayList<>(files),
+                rootClasspath.getFiles(),
+                rootClassNames.get(),
+                configurationFiles.getAsFileTree().getFiles(),
+                outputDirectory.get().getAsFile().toPath());
+        getLogger().lifecycle("Pruned the native-image classpath: {}", result);
+    }
+
+    @Classpath
+    public final FileCollection getClasspath() {
+        return classpath;
+    }
+
+    public final void setClasspath(FileCollection files) {
+        classpath.setFrom(files);
+    }
+
+    /** Returns the project's own classes, all of which are reachable. */
+    @Classpath
+    public final FileCollection getRootClasspath() {
+        return rootClasspath;
+    }
+
+    public final void setRootClasspath(FileCollection files) {
+        rootClasspath.setFrom(files);
+    }
+
+    /**
+     * Returns further text naming reachable classes, such as main classes and native-image options, from which any
+     * class names are taken.
+     */
+    @Input
+    public final ListProperty<String> getRootClassNames() {
+        return rootClassNames;
+    }
+
+    public final void setRootClassNames(Provider<List<String>> provider) {
+        rootClassNames.set(provider);
+    }
+
+    /**
+     * Returns the native-image configuration given outside of the classpath, such as the configuration directories
+     * written by the native-image agent and the files named in options, whose class names are reachable too.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public final FileCollection getConfigurationFiles() {
+        return configurationFiles;
+    }
+
+    public final void setConfigurationFiles(FileCollection files) {
+        configurationFiles.setFrom(files);
+    }
+
+    /** Returns the directory the trimmed jars are written to, in classpath order, along with their list. */
+    @OutputDirectory
+    public final Provider<Directory> getOutputDirectory() {
+        return outputDirectory;
+    }
+}
@@ -16,22 +16,31 @@
 
 package com.palantir.gradle.graal;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import org.gradle.api.Action;
-import org.gradle.api.Task;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.TaskAction;
 
 /**
  * Runs GraalVM's native-image command configured to produce a shared library.
  */
-public class SharedLibraryTask extends BaseGraalCompileTask {
+@CacheableTask
+public abstract class SharedLibraryTask extends BaseGraalCompileTask {
+    private final FileCollection headerFiles = getProject().files(getOutputName().map(name -> {
+        File directory = getOutputFile().get().getAsFile().getParentFile();
+        return Stream.of(name + ".h", name + "_dynamic.h", "graal_isolate.h", "graal_isolate_dynamic.h")
+                .map(header -> new File(directory, header))
+                .collect(Collectors.toList());
+    }));
 
     public SharedLibraryTask() {
         setDescription("Runs GraalVM's native-image command configured to produce a shared library.");
-        // must use an anonymous inner class instead of a lambda to get Gradle staleness checking
-        doLast(new LogAction());
     }
 
     /**
@@ -54,26 +63,20 @@ public class SharedLibraryTask extends BaseGraalCompileTask {
         }
     }
 
+    /**
+     * Returns the C headers native-image writes next to the shared library, so that they are restored from the build
+     * cache along with it.
+     */
+    @OutputFiles
+    public final FileCollection getHeaderFiles() {
+        return headerFiles;
+    }
+
     @TaskAction
     public final void sharedLibrary() throws IOException {
         List<String> args = new ArrayList<>();
         args.add("--shared");
         configureArgs(args);
-        getProject().exec(spec -> {
-            spec.setExecutable(getExecutable());
-            spec.setArgs(args);
-            configurePlatformSpecifics(spec);
-        });
-    }
-
-    private final class LogAction implements Action<Task> {
-        @Override
-        public void execute(Task _task) {
-            getLogger()
-                    .warn(
-                            "shared library available at {} ({} MB)",
-                            getProject().relativePath(getOutputFile().get().getAsFile()),
-                            fileSizeMegabytes(getOutputFile().get()));
-        }
+        compile(args, "shared library");
     }
 }
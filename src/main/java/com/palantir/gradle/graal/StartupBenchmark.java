@@ -0,0 +1,243 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.gradle.api.GradleException;
+
+/**
+ * Measures how long a program takes to start, and how much memory and CPU time it uses doing so.
+ *
+ * <p>Startup ends when the program exits, or when it prints a readiness marker, at which point it is stopped. On
+ * Linux, the peak resident set size and the user and system CPU time are sampled from {@code /proc} every
+ * millisecond until then. A run reports what the last sample saw, and nothing for a program that exits before it is
+ * first sampled.</p>
+ */
+final class StartupBenchmark {
+    static final String[] PERCENTILES = {"min", "p50", "p90", "p99", "max"};
+
+    private static final long POLL_MILLIS = 1;
+    // USER_HZ, the unit of the CPU times in /proc/<pid>/stat, is 100 on every mainstream Linux architecture
+    private static final long MILLIS_PER_TICK = 10;
+    private static final int OUTPUT_TAIL_LINES = 20;
+
+    private StartupBenchmark() {}
+
+    /** Runs {@code commandLine} once until it exits, or until it prints {@code readinessMarker} if present. */
+    static Run measure(List<String> commandLine, Optional<String> readinessMarker) throws IOException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(commandLine).redirectErrorStream(true).start();
+        OutputWatcher output = new OutputWatcher(process, readinessMarker);
+        output.start();
+        Path proc = Paths.get("/proc", Long.toString(process.pid()));
+        boolean sampled = Platform.operatingSystem() == Platform.OperatingSystem.LINUX;
+        OptionalLong peakRss = OptionalLong.empty();
+        long[] cpuMillis = null;
+        try {
+            while (!process.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (sampled) {
+                    // the process may exit between waitFor and these reads, leaving the previous sample in place
+                    peakRss = orElse(peakRssKilobytes(proc.resolve("status")), peakRss);
+                    cpuMillis = cpuMillis(proc.resolve("stat")).orElse(cpuMillis);
+                }
+                if (output.readyNanos > 0) {
+                    // children would keep the output open, so stop them as well
+                    process.descendants().forEach(ProcessHandle::destroy);
+                    process.destroy();
+                    process.waitFor();
+                    break;
+                }
+            }
+            long exited = System.nanoTime();
+            output.join();
+            long end = output.readyNanos > 0 ? output.readyNanos : exited;
+            if (readinessMarker.isPresent() && output.readyNanos == 0) {
+                throw new GradleException("Benchmarked program exited with " + process.exitValue() + " before printing "
+                        + readinessMarker.get() + ":\n" + output.tail());
+            }
+            if (!readinessMarker.isPresent() && process.exitValue() != 0) {
+                throw new GradleException(
+                        "Benchmarked program exited with " + process.exitValue() + ":\n" + output.tail());
+            }
+            return new Run(
+                    TimeUnit.NANOSECONDS.toMillis(end - start),
+                    peakRss,
+                    cpuMillis == null ? OptionalLong.empty() : OptionalLong.of(cpuMillis[0]),
+                    cpuMillis == null ? OptionalLong.empty() : OptionalLong.of(cpuMillis[1]));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while benchmarking " + commandLine.get(0), e);
+        } finally {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    /** Reads the peak resident set size, {@code VmHWM}, from a {@code /proc/<pid>/status} file. */
+    static OptionalLong peakRssKilobytes(Path status) {
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    return OptionalLong.of(Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the process has exited already
+        }
+        return OptionalLong.empty();
+    }
+
+    /** Reads the user and system CPU time in milliseconds from a {@code /proc/<pid>/stat} file. */
+    static Optional<long[]> cpuMillis(Path stat) {
+        try {
+            String line = new String(Files.readAllBytes(stat), StandardCharsets.UTF_8);
+            // the command name in parentheses may contain spaces, so fields are counted from its end: state is the
+            // third field, and utime and stime are the fourteenth and fifteenth
+            String[] fields = line.substring(line.lastIndexOf(')') + 2).trim().split("\\s+");
+            return Optional.of(new long[] {
+                Long.parseLong(fields[11]) * MILLIS_PER_TICK, Long.parseLong(fields[12]) * MILLIS_PER_TICK
+            });
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the minimum, percentiles and maximum of each metric of {@code runs}, keyed by metric and then by the
+     * names in {@link #PERCENTILES}. Each metric is summarized over the runs that measured it, as a run can exit
+     * before it is first sampled; metrics that no run measured are left out.
+     */
+    static Map<String, Map<String, Long>> summarize(List<Run> runs) {
+        Map<String, Map<String, Long>> summary = new TreeMap<>();
+        summarize(summary, "wallMillis", runs, run -> OptionalLong.of(run.wallMillis));
+        summarize(summary, "peakRssKilobytes", runs, run -> run.peakRssKilobytes);
+        summarize(summary, "userMillis", runs, run -> run.userMillis);
+        summarize(summary, "systemMillis", runs, run -> run.systemMillis);
+        return summary;
+    }
+
+    private static void summarize(
+            Map<String, Map<String, Long>> summary,
+            String metric,
+            List<Run> runs,
+            Function<Run, OptionalLong> value) {
+        List<Long> values = new ArrayList<>();
+        runs.forEach(run -> value.apply(run).ifPresent(values::add));
+        if (values.isEmpty()) {
+            return;
+        }
+        Collections.sort(values);
+        Map<String, Long> percentiles = new TreeMap<>();
+        percentiles.put("min", values.get(0));
+        percentiles.put("p50", percentile(values, 50));
+        percentiles.put("p90", percentile(values, 90));
+        percentiles.put("p99", percentile(values, 99));
+        percentiles.put("max", values.get(values.size() - 1));
+        summary.put(metric, percentiles);
+    }
+
+    /** Returns the nearest-rank percentile of sorted {@code values}. */
+    static long percentile(List<Long> sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
+    private static OptionalLong orElse(OptionalLong value, OptionalLong other) {
+        return value.isPresent() ? value : other;
+    }
+
+    /** The measurements of one run. */
+    static final class Run {
+        private final long wallMillis;
+        private final OptionalLong peakRssKilobytes;
+        private final OptionalLong userMillis;
+        private final OptionalLong systemMillis;
+
+        Run(long wallMillis, OptionalLong peakRssKilobytes, OptionalLong userMillis, OptionalLong systemMillis) {
+            this.wallMillis = wallMillis;
+            this.peakRssKilobytes = peakRssKilobytes;
+            this.userMillis = userMillis;
+            this.systemMillis = systemMillis;
+        }
+
+        String toCsv() {
+            return wallMillis + "," + toCsv(peakRssKilobytes) + "," + toCsv(userMillis) + "," + toCsv(systemMillis);
+        }
+
+        private static String toCsv(OptionalLong value) {
+            return value.isPresent() ? Long.toString(value.getAsLong()) : "";
+        }
+    }
+
+    /** Drains the output of the benchmarked process, so it never blocks on a full pipe, and watches for readiness. */
+    private static final class OutputWatcher extends Thread {
+        private final Process process;
+        private final Optional<String> readinessMarker;
+        private final List<String> tail = new ArrayList<>();
+        private volatile long readyNanos;
+
+        OutputWatcher(Process process, Optional<String> readinessMarker) {
+            super("gradle-graal-benchmark-output");
+            setDaemon(true);
+            this.process = process;
+            this.readinessMarker = readinessMarker;
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (readyNanos == 0 && readinessMarker.isPresent() && line.contains(readinessMarker.get())) {
+                        readyNanos = System.nanoTime();
+                    }
+                    synchronized (tail) {
+                        tail.add(line);
+                        if (tail.size() > OUTPUT_TAIL_LINES) {
+                            tail.remove(0);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the stream closes when a ready process is stopped
+            }
+        }
+
+        String tail() {
+            synchronized (tail) {
+                return String.join("\n", tail);
+            }
+        }
+    }
+}
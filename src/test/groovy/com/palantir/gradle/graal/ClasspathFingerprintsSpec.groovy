@@ -0,0 +1,113 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import org.gradle.api.provider.Property
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ClasspathFingerprintsSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File cacheDir
+    File classes
+
+    def setup() {
+        cacheDir = temporaryFolder.newFolder("cache")
+        classes = temporaryFolder.newFolder("classes")
+        new File(classes, "com/example").mkdirs()
+        new File(classes, "com/example/Main.class").text = "main"
+    }
+
+    def 'fingerprints jars by their entries, not their timestamps or location'() {
+        setup:
+        File older = jar("older.jar", 0L, "contents")
+        File newer = jar("newer.jar", 1_000_000_000_000L, "contents")
+        ClasspathFingerprints fingerprints = service()
+
+        expect:
+        fingerprints.key([older, classes]) == fingerprints.key([newer, classes])
+        fingerprints.key([older, classes]) != fingerprints.key([classes, older])
+        fingerprints.key([older, classes]) != fingerprints.key([jar("changed.jar", 0L, "changed"), classes])
+    }
+
+    def 'trusts the index for files whose size and modification time have not changed'() {
+        setup:
+        File library = jar("library.jar", 0L, "before")
+        ClasspathFingerprints first = service()
+        String key = first.key([library, classes])
+        first.close()
+
+        when:
+        FileTime modified = Files.getLastModifiedTime(library.toPath())
+        jar("library.jar", 0L, "after!")
+        Files.setLastModifiedTime(library.toPath(), modified)
+
+        then: 'a later build finds the stale hash, which proves it was not hashed again'
+        service().key([library, classes]) == key
+
+        when:
+        Files.setLastModifiedTime(library.toPath(), FileTime.fromMillis(modified.toMillis() + 5000))
+
+        then:
+        service().key([library, classes]) != key
+    }
+
+    def 'ignores malformed lines of the index'() {
+        setup:
+        Files.write(cacheDir.toPath().resolve(ClasspathFingerprints.INDEX_FILE),
+                "garbage\nabc\tnot-a-size\t1\t/some/file\n".bytes)
+
+        expect:
+        ClasspathFingerprints.read(cacheDir.toPath().resolve(ClasspathFingerprints.INDEX_FILE)).isEmpty()
+        service().key([classes]) != null
+    }
+
+    private ClasspathFingerprints service() {
+        Property<File> cacheDirProperty = Stub(Property) {
+            get() >> cacheDir
+        }
+        ClasspathFingerprints.Params params = Stub(ClasspathFingerprints.Params) {
+            getCacheDir() >> cacheDirProperty
+        }
+        return new ClasspathFingerprints() {
+            @Override
+            ClasspathFingerprints.Params getParameters() {
+                return params
+            }
+        }
+    }
+
+    private File jar(String name, long entryTime, String contents) {
+        File jar = new File(temporaryFolder.root, name)
+        new ZipOutputStream(new FileOutputStream(jar)).withCloseable { out ->
+            ZipEntry entry = new ZipEntry("com/example/Library.class")
+            entry.setTime(entryTime)
+            out.putNextEntry(entry)
+            out.write(contents.bytes)
+        }
+        return jar
+    }
+}
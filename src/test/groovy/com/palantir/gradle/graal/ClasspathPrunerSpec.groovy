@@ -0,0 +1,117 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ClasspathPrunerSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File library
+
+    def setup() {
+        // this plugin's own classes make a small library with known references between them
+        library = temporaryFolder.newFile("library.jar")
+        new ZipOutputStream(new FileOutputStream(library)).withCloseable { out ->
+            [GraalVersionUtil, Platform, Platform.OperatingSystem, Platform.Architecture, FileUtil].each { type ->
+                out.putNextEntry(new ZipEntry(type.name.replace('.', '/') + ".class"))
+                out.write(type.getResourceAsStream("/" + type.name.replace('.', '/') + ".class").bytes)
+            }
+            out.putNextEntry(new ZipEntry("config.properties"))
+            out.write("key=value".bytes)
+            out.putNextEntry(new ZipEntry("META-INF/SIGNER.SF"))
+        }
+    }
+
+    def 'keeps the classes reachable from the roots, all resources, and no signatures'() {
+        when:
+        Path output = temporaryFolder.root.toPath().resolve("pruned")
+        ClasspathPruner.prune([library], [] as Set, [Platform.name], [], output)
+
+        then:
+        Files.readAllLines(output.resolve("classpath.txt")) == ["000-library.jar"]
+        entries(output.resolve("000-library.jar")) == [
+                "com/palantir/gradle/graal/Platform\$Architecture.class",
+                "com/palantir/gradle/graal/Platform\$OperatingSystem.class",
+                "com/palantir/gradle/graal/Platform.class",
+                "config.properties",
+        ]
+    }
+
+    def 'keeps every class of the root entries'() {
+        setup:
+        File root = temporaryFolder.newFolder("classes")
+        Path hostResources = root.toPath().resolve("com/palantir/gradle/graal/HostResources.class")
+        Files.createDirectories(hostResources.parent)
+        Files.write(hostResources, HostResources.getResourceAsStream("HostResources.class").bytes)
+
+        when:
+        Path output = temporaryFolder.root.toPath().resolve("pruned")
+        ClasspathPruner.prune([library, root], [root] as Set, [], [], output)
+
+        then:
+        Files.readAllLines(output.resolve("classpath.txt")) == ["000-library.jar", "001-classes.jar"]
+        entries(output.resolve("001-classes.jar")) == ["com/palantir/gradle/graal/HostResources.class"]
+        !entries(output.resolve("000-library.jar")).contains("com/palantir/gradle/graal/Platform.class")
+    }
+
+    def 'keeps the classes named in native-image configuration files'() {
+        setup:
+        File reflectConfig = new File(temporaryFolder.newFolder("agent"), "reflect-config.json")
+        reflectConfig.text = """[
+  {
+    "name":"${FileUtil.name}",
+    "allDeclaredMethods":true
+  }
+]
+"""
+
+        when:
+        Path output = temporaryFolder.root.toPath().resolve("pruned")
+        ClasspathPruner.prune([library], [] as Set, [], [reflectConfig], output)
+
+        then:
+        entries(output.resolve("000-library.jar")) == ["com/palantir/gradle/graal/FileUtil.class", "config.properties"]
+    }
+
+    def 'writes the same jars every time'() {
+        when:
+        Path first = temporaryFolder.root.toPath().resolve("first")
+        Path second = temporaryFolder.root.toPath().resolve("second")
+        ClasspathPruner.prune([library], [] as Set, [GraalVersionUtil.name], [], first)
+        Thread.sleep(1000)
+        ClasspathPruner.prune([library], [] as Set, [GraalVersionUtil.name], [], second)
+
+        then:
+        first.resolve("000-library.jar").bytes == second.resolve("000-library.jar").bytes
+    }
+
+    private static List<String> entries(Path jar) {
+        new ZipFile(jar.toFile()).withCloseable { zip ->
+            zip.entries().toList().findAll { !it.directory }*.name
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class GraalArchiveExtractorSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    @Unroll
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'extracts #format tar archives with long names, links and modes'() {
+        setup:
+        Path source = temporaryFolder.newFolder("source").toPath()
+        Path graalHome = Files.createDirectories(source.resolve("graalvm/bin"))
+        Files.write(graalHome.resolve("native-image"), "#!/bin/sh".bytes)
+        Files.setPosixFilePermissions(graalHome.resolve("native-image"), PosixFilePermissions.fromString("rwxr-xr-x"))
+        Path longDir = Files.createDirectories(source.resolve("graalvm/" + "d" * 120))
+        Files.write(longDir.resolve("f" * 90), "long".bytes)
+        Files.createSymbolicLink(source.resolve("graalvm/link"), Paths.get("bin", "native-image"))
+
+        Path archive = temporaryFolder.getRoot().toPath().resolve("graalvm.tar.gz")
+        Process tar = new ProcessBuilder("tar", "--format=${format}", "-czf", archive.toString(), "graalvm")
+                .directory(source.toFile())
+                .start()
+        assert tar.waitFor() == 0
+        Path target = temporaryFolder.newFolder("target").toPath()
+
+        when:
+        Files.newInputStream(archive).withCloseable { GraalArchiveExtractor.extract(it, "graalvm.tar.gz", target) }
+
+        then:
+        Files.getPosixFilePermissions(target.resolve("graalvm/bin/native-image")) ==
+                PosixFilePermissions.fromString("rwxr-xr-x")
+        target.resolve("graalvm/" + "d" * 120 + "/" + "f" * 90).text == "long"
+        Files.isSymbolicLink(target.resolve("graalvm/link"))
+        Files.readSymbolicLink(target.resolve("graalvm/link"))== Paths.get("bin", "native-image")
+
+        where:
+        format << ["gnu", "pax"]
+    }
+
+    def 'extracts zip archives'() {
+        setup:
+        Path archive = temporaryFolder.getRoot().toPath().resolve("graalvm.zip")
+        new ZipOutputStream(Files.newOutputStream(archive)).withCloseable {
+            it.putNextEntry(new ZipEntry("graalvm/bin/"))
+            it.putNextEntry(new ZipEntry("graalvm/bin/native-image.cmd"))
+            it.write("@echo off".bytes)
+        }
+        Path target = temporaryFolder.newFolder("target").toPath()
+
+        when:
+        Files.newInputStream(archive).withCloseable { GraalArchiveExtractor.extract(it, "graalvm.zip", target) }
+
+        then:
+        target.resolve("graalvm/bin/native-image.cmd").text == "@echo off"
+    }
+
+    def 'refuses entries that escape the target directory'() {
+        setup:
+        Path archive = temporaryFolder.getRoot().toPath().resolve("graalvm.zip")
+        new ZipOutputStream(Files.newOutputStream(archive)).withCloseable {
+            it.putNextEntry(new ZipEntry("../escaped"))
+        }
+        Path target = temporaryFolder.newFolder("target").toPath()
+
+        when:
+        Files.newInputStream(archive).withCloseable { GraalArchiveExtractor.extract(it, "graalvm.zip", target) }
+
+        then:
+        IOException exception = thrown()
+        exception.message.contains("outside of")
+    }
+
+    @Unroll
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'refuses to extract through a symbolic link to #linkTarget'() {
+        setup:
+        Path outside = temporaryFolder.newFolder("outside").toPath()
+        Path source = temporaryFolder.newFolder("source").toPath()
+        Files.createSymbolicLink(source.resolve("link"), Paths.get(linkTarget.replace("OUTSIDE", outside.toString())))
+        Files.createDirectories(source.resolve("real"))
+        Files.write(source.resolve("real/evil"), "evil".bytes)
+
+        // renaming real/ to link/ in the archive makes tar write link/evil through the link
+        Path archive = temporaryFolder.getRoot().toPath().resolve("malicious.tar.gz")
+        Process tar = new ProcessBuilder(
+                "tar", "--transform=s,^real,link,", "-czf", archive.toString(), "link", "real")
+                .directory(source.toFile())
+                .start()
+        assert tar.waitFor() == 0
+        Path target = temporaryFolder.newFolder("target").toPath().resolve("staging")
+
+        when:
+        Files.newInputStream(archive).withCloseable { GraalArchiveExtractor.extract(it, "malicious.tar.gz", target) }
+
+        then:
+        thrown(IOException)
+        !Files.exists(outside.resolve("evil"))
+        !Files.exists(target.parent.resolve("evil"))
+
+        where:
+        linkTarget << ["..", "../../outside", "OUTSIDE"]
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Paths
+import java.time.Duration
+import java.time.Instant
+import spock.lang.Specification
+
+class GraalBuildServersSpec extends Specification {
+
+    Instant now = Instant.now()
+
+    def 'has one session per GraalVM version and Java version'() {
+        expect:
+        GraalBuildServers.session("20.2.0", "11") == "gradle-graal-20.2.0-java11"
+        GraalBuildServers.session("20.2.0", "8") != GraalBuildServers.session("20.2.0", "11")
+    }
+
+    def 'only uses build servers where native-image has them'() {
+        expect:
+        GraalBuildServers.isSupported(graalVersion) == supported
+
+        where:
+        graalVersion | supported
+        '1.0.0-rc3'  | false
+        '19.0.0'     | true
+        '20.2.0'     | true
+        '21.0.0'     | false
+        '22.3.0'     | false
+    }
+
+    def 'retires idle sessions, then the least recently used ones beyond the memory cap'() {
+        setup:
+        def idle = session("idle", 1024, Duration.ofHours(2))
+        def oldest = session("oldest", 4096, Duration.ofMinutes(20))
+        def older = session("older", 4096, Duration.ofMinutes(10))
+        def newest = session("newest", 4096, Duration.ofMinutes(1))
+
+        when:
+        def retired = GraalBuildServers.retire([idle, oldest, older, newest], now.minus(Duration.ofMinutes(30)), 8192)
+
+        then:
+        retired*.name as Set == ["idle", "oldest"] as Set
+    }
+
+    def 'keeps every recently used session that fits into the memory cap'() {
+        expect:
+        GraalBuildServers.retire(
+                [session("a", 2048, Duration.ofMinutes(5)), session("b", 2048, Duration.ofMinutes(1))],
+                now.minus(Duration.ofMinutes(30)),
+                8192).isEmpty()
+    }
+
+    private GraalBuildServers.Session session(String name, long memoryMegabytes, Duration idleFor) {
+        return new GraalBuildServers.Session(
+                Paths.get("build-servers", name), "native-image", memoryMegabytes, now.minus(idleFor))
+    }
+}
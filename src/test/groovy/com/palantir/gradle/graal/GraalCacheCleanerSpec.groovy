@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.time.Duration
+import java.time.Instant
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class GraalCacheCleanerSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    Logger logger = Logging.getLogger(GraalCacheCleanerSpec)
+    Path cacheDir
+
+    def setup() {
+        cacheDir = temporaryFolder.getRoot().toPath()
+        entry("19.0.0", "8", 30)
+        entry("20.0.0", "8", 5)
+        entry("20.2.0", "11", 1)
+        entry("21.0.0", "11", 60)
+    }
+
+    def 'evicts the least recently used versions beyond the limit, keeping the configured one'() {
+        when:
+        new GraalCacheCleaner(cacheDir, logger).clean(Optional.empty(), Optional.of(2), Optional.empty(), "21.0.0", "11")
+
+        then:
+        remaining() == ["20.2.0/11", "21.0.0/11"]
+    }
+
+    def 'evicts versions that have not been used for too long'() {
+        when:
+        new GraalCacheCleaner(cacheDir, logger).clean(
+                Optional.empty(), Optional.empty(), Optional.of(Duration.ofDays(10)), "21.0.0", "11")
+
+        then:
+        remaining() == ["20.0.0/8", "20.2.0/11", "21.0.0/11"]
+    }
+
+    def 'never evicts versions that are in use'() {
+        setup:
+        GraalCacheLock lock = GraalCacheLock.acquireShared(GraalCacheLock.lockFile(cacheDir, "19.0.0", "8"), logger)
+
+        when:
+        new GraalCacheCleaner(cacheDir, logger).clean(Optional.empty(), Optional.of(0), Optional.empty(), "21.0.0", "11")
+
+        then:
+        remaining() == ["19.0.0/8", "21.0.0/11"]
+
+        cleanup:
+        lock.close()
+    }
+
+    def 'records uses of a version'() {
+        when:
+        GraalCacheCleaner.recordUse(cacheDir, "19.0.0", "8", logger)
+        new GraalCacheCleaner(cacheDir, logger).clean(Optional.empty(), Optional.of(2), Optional.empty(), "21.0.0", "11")
+
+        then:
+        remaining() == ["19.0.0/8", "21.0.0/11"]
+    }
+
+    private void entry(String graalVersion, String javaVersion, int daysSinceUse) {
+        Path entry = Files.createDirectories(cacheDir.resolve(graalVersion).resolve(javaVersion))
+        Files.createDirectories(entry.resolve("graalvm-ce-${graalVersion}/bin"))
+        Files.write(entry.resolve("graalvm-ce-${graalVersion}/bin/native-image"), new byte[1024])
+        Path marker = Files.createFile(entry.resolve(".last-used"))
+        Files.setLastModifiedTime(marker, FileTime.from(Instant.now() - Duration.ofDays(daysSinceUse)))
+    }
+
+    private List<String> remaining() {
+        return Files.list(cacheDir).withCloseable { versions ->
+            versions.findAll { Files.isDirectory(it) }.collectMany { version ->
+                Files.list(version).withCloseable { javaVersions ->
+                    javaVersions.findAll { Files.isDirectory(it) }.collect { "${version.fileName}/${it.fileName}" as String }
+                }
+            }.sort()
+        }
+    }
+}
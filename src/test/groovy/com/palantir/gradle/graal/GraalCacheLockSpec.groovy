@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class GraalCacheLockSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'places the lock next to the version it guards'() {
+        expect:
+        GraalCacheLock.lockFile(temporaryFolder.getRoot().toPath(), "20.2.0", "11") ==
+                temporaryFolder.getRoot().toPath().resolve("20.2.0/11.lock")
+    }
+
+    def 'blocks other threads until the lock is released'() {
+        setup:
+        Path lockFile = GraalCacheLock.lockFile(temporaryFolder.getRoot().toPath(), "20.2.0", "11")
+        GraalCacheLock lock = GraalCacheLock.acquire(lockFile, Logging.getLogger(GraalCacheLockSpec))
+        CountDownLatch acquired = new CountDownLatch(1)
+
+        when:
+        Thread.start {
+            GraalCacheLock.acquire(lockFile, Logging.getLogger(GraalCacheLockSpec)).withCloseable {
+                acquired.countDown()
+            }
+        }
+
+        then:
+        !acquired.await(200, TimeUnit.MILLISECONDS)
+
+        when:
+        lock.close()
+
+        then:
+        acquired.await(10, TimeUnit.SECONDS)
+    }
+}
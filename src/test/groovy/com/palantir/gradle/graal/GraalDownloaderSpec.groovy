@@ -0,0 +1,178 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.MessageDigest
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class GraalDownloaderSpec extends Specification {
+
+    @Rule MockWebServer server = new MockWebServer()
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    byte[] content = new byte[10_000]
+
+    def setup() {
+        new Random(42).nextBytes(content)
+    }
+
+    def 'downloads in parallel ranges when the server supports them'() {
+        setup:
+        server.setDispatcher(new RangeDispatcher(content))
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+
+        when:
+        new GraalDownloader(3, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec)).download(
+                server.url("/archive.tar.gz").url(), target, Optional.empty())
+
+        then:
+        Files.readAllBytes(target) == content
+        // one request per 1024 byte chunk
+        server.getRequestCount() == 10
+    }
+
+    def 'falls back to a single stream when the server ignores ranges'() {
+        setup:
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)))
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+
+        when:
+        new GraalDownloader(3, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec)).download(
+                server.url("/archive.tar.gz").url(), target, Optional.empty())
+
+        then:
+        Files.readAllBytes(target) == content
+        server.getRequestCount() == 1
+    }
+
+    def 'resumes an interrupted download from its journal'() {
+        setup:
+        RangeDispatcher dispatcher = new RangeDispatcher(content)
+        dispatcher.failingRangeStart = 5120
+        server.setDispatcher(dispatcher)
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+        GraalDownloader downloader = new GraalDownloader(1, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec))
+
+        when:
+        downloader.download(server.url("/archive.tar.gz").url(), target, Optional.empty())
+
+        then:
+        thrown(IOException)
+        !Files.exists(target)
+        Files.exists(GraalDownloader.partFile(target))
+
+        when:
+        dispatcher.failingRangeStart = -1
+        int requestsBeforeResume = server.getRequestCount()
+        downloader.download(server.url("/archive.tar.gz").url(), target, Optional.empty())
+
+        then:
+        Files.readAllBytes(target) == content
+        // at most the five chunks from 5120 onwards are fetched again, fewer if one finished before the failure surfaced
+        server.getRequestCount() - requestsBeforeResume <= 5
+        !Files.exists(GraalDownloader.partFile(target))
+        !Files.exists(GraalDownloader.journalFile(target))
+    }
+
+    def 'records the SHA-256 of the download'() {
+        setup:
+        server.setDispatcher(new RangeDispatcher(content))
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+        String expected = GraalDownloader.toHex(MessageDigest.getInstance("SHA-256").digest(content))
+
+        when:
+        String actual = new GraalDownloader(3, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec)).download(
+                server.url("/archive.tar.gz").url(), target, Optional.of(expected.toUpperCase()))
+
+        then:
+        actual == expected
+        GraalDownloader.checksumFile(target).toFile().text == expected
+    }
+
+    def 'discards downloads that do not match the expected SHA-256'() {
+        setup:
+        server.setDispatcher(new RangeDispatcher(content))
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+
+        when:
+        new GraalDownloader(3, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec)).download(
+                server.url("/archive.tar.gz").url(), target, Optional.of("0" * 64))
+
+        then:
+        IOException exception = thrown()
+        exception.message.contains("Checksum mismatch")
+        !Files.exists(target)
+        !Files.exists(GraalDownloader.partFile(target))
+        !Files.exists(GraalDownloader.journalFile(target))
+    }
+
+    def 'fails on unsuccessful responses'() {
+        setup:
+        server.enqueue(new MockResponse().setResponseCode(404))
+        Path target = temporaryFolder.getRoot().toPath().resolve("archive.tar.gz")
+
+        when:
+        new GraalDownloader(3, 1024, 10_000, Logging.getLogger(GraalDownloaderSpec)).download(
+                server.url("/archive.tar.gz").url(), target, Optional.empty())
+
+        then:
+        IOException exception = thrown()
+        exception.message.contains("HTTP 404")
+    }
+
+    static class RangeDispatcher extends Dispatcher {
+        private final byte[] content
+        volatile int failingRangeStart = -1
+
+        RangeDispatcher(byte[] content) {
+            this.content = content
+        }
+
+        @Override
+        MockResponse dispatch(RecordedRequest request) {
+            String range = request.getHeader("Range")
+            if (range == null) {
+                return new MockResponse().setBody(new Buffer().write(content))
+            }
+            def matcher = range =~ /bytes=(\d+)-(\d*)/
+            matcher.find()
+            int start = Integer.parseInt(matcher.group(1))
+            if (start == failingRangeStart) {
+                return new MockResponse().setResponseCode(500)
+            }
+            int end = matcher.group(2).isEmpty()
+                    ? content.length - 1
+                    : Math.min(Integer.parseInt(matcher.group(2)), content.length - 1)
+            return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader("Accept-Ranges", "bytes")
+                    .setHeader("ETag", '"graal"')
+                    .setHeader("Content-Range", "bytes ${start}-${end}/${content.length}")
+                    .setBody(new Buffer().write(Arrays.copyOfRange(content, start, end + 1)))
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.gradle.api.services.BuildServiceParameters
+import spock.lang.Specification
+
+class GraalProvisioningServiceSpec extends Specification {
+
+    GraalProvisioningService service = new GraalProvisioningService() {
+        @Override
+        BuildServiceParameters.None getParameters() {
+            return null
+        }
+    }
+
+    def 'provisions each location once, however many tasks ask for it concurrently'() {
+        setup:
+        Path location = Paths.get("cache/20.2.0/11/graalvm-ce-java11-20.2.0")
+        AtomicInteger runs = new AtomicInteger()
+        CountDownLatch release = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def futures = (1..8).collect {
+            executor.submit {
+                service.provision(location, {
+                    runs.incrementAndGet()
+                    release.await(10, TimeUnit.SECONDS)
+                } as GraalProvisioningService.Provisioner)
+            }
+        }
+        release.countDown()
+        def results = futures.collect { it.get(10, TimeUnit.SECONDS) }
+
+        then:
+        runs.get() == 1
+        results.every { it == location }
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def 'retries locations whose provisioning failed'() {
+        setup:
+        Path location = Paths.get("cache/20.2.0/11/graalvm-ce-java11-20.2.0")
+
+        when:
+        service.provision(location, { throw new IOException("connection reset") } as GraalProvisioningService.Provisioner)
+
+        then:
+        thrown(IOException)
+
+        when:
+        boolean ran = false
+        service.provision(location, { ran = true } as GraalProvisioningService.Provisioner)
+
+        then:
+        ran
+    }
+}
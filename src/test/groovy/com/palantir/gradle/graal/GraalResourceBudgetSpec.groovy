@@ -0,0 +1,91 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Property
+import spock.lang.Specification
+
+class GraalResourceBudgetSpec extends Specification {
+
+    Logger logger = Logging.getLogger(GraalResourceBudgetSpec)
+
+    GraalResourceBudget.Params params = Stub(GraalResourceBudget.Params) {
+        getMemoryMegabytes() >> Stub(Property) { get() >> 16384L }
+        getProcessors() >> Stub(Property) { get() >> 8 }
+    }
+
+    GraalResourceBudget budget = new GraalResourceBudget() {
+        @Override
+        GraalResourceBudget.Params getParameters() {
+            return params
+        }
+    }
+
+    def 'runs processes side by side while they fit into the budget'() {
+        when:
+        def first = budget.reserve(8192, 4, logger)
+        def second = budget.reserve(8192, 4, logger)
+
+        then:
+        noExceptionThrown()
+
+        cleanup:
+        first?.close()
+        second?.close()
+    }
+
+    def 'waits for memory to be released before starting another process'() {
+        setup:
+        def executor = Executors.newSingleThreadExecutor()
+        def first = budget.reserve(12288, 2, logger)
+        CountDownLatch reserved = new CountDownLatch(1)
+
+        when:
+        def second = executor.submit {
+            budget.reserve(8192, 2, logger).withCloseable { reserved.countDown() }
+        }
+
+        then:
+        !reserved.await(200, TimeUnit.MILLISECONDS)
+
+        when:
+        first.close()
+
+        then:
+        reserved.await(10, TimeUnit.SECONDS)
+        second.get(10, TimeUnit.SECONDS) == null // rethrows anything that went wrong while waiting
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def 'runs a process asking for more than the whole budget on its own'() {
+        when:
+        def reservation = budget.reserve(65536, 32, logger)
+
+        then:
+        noExceptionThrown()
+
+        cleanup:
+        reservation?.close()
+    }
+}
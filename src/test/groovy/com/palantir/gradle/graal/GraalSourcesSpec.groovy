@@ -0,0 +1,137 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.SocketPolicy
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class GraalSourcesSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+    @Rule MockWebServer stalled = new MockWebServer()
+    @Rule MockWebServer healthy = new MockWebServer()
+
+    Logger logger = Logging.getLogger(GraalSourcesSpec)
+
+    def 'orders local mirrors first, then resolved artifacts, then remote sources'() {
+        setup:
+        File mirrored = temporaryFolder.newFile("graalvm.tar.gz")
+        File resolved = temporaryFolder.newFile("graalvm-resolved.tar.gz")
+        File missing = new File(temporaryFolder.getRoot(), "missing.tar.gz")
+
+        when:
+        List<URL> sources = GraalSources.order(
+                ["https://example.com/graalvm.tar.gz", missing.toURI().toString(), mirrored.toURI().toString()],
+                [resolved],
+                false,
+                logger)
+
+        then:
+        sources == [mirrored.toURI().toURL(), resolved.toURI().toURL(), new URL("https://example.com/graalvm.tar.gz")]
+        GraalSources.isResolvedArtifact(sources[1], [resolved])
+        !GraalSources.isResolvedArtifact(sources[0], [resolved])
+    }
+
+    def 'skips remote sources when offline'() {
+        setup:
+        File mirrored = temporaryFolder.newFile("graalvm.tar.gz")
+
+        when:
+        List<URL> sources = GraalSources.order(
+                ["https://example.com/graalvm.tar.gz", mirrored.toURI().toString()], [], true, logger)
+
+        then:
+        sources == [mirrored.toURI().toURL()]
+    }
+
+    def 'falls back to the next source when one fails'() {
+        setup:
+        List<URL> attempted = []
+        List<URL> sources = [
+                new URL("https://a.example.com/graalvm.tar.gz"), new URL("https://b.example.com/graalvm.tar.gz")]
+
+        when:
+        GraalSources.fetchFromFirst(sources, { URL source ->
+            attempted.add(source)
+            if (source.host.startsWith("a.")) {
+                throw new IOException("unreachable")
+            }
+        } as GraalSources.Fetch, logger)
+
+        then:
+        attempted == sources
+    }
+
+    def 'fails with every error once all sources have failed'() {
+        setup:
+        List<URL> sources = [
+                new URL("https://a.example.com/graalvm.tar.gz"), new URL("https://b.example.com/graalvm.tar.gz")]
+
+        when:
+        GraalSources.fetchFromFirst(sources, { URL source ->
+            throw new IOException("unreachable: " + source.host)
+        } as GraalSources.Fetch, logger)
+
+        then:
+        IOException e = thrown()
+        e.message == "unreachable: a.example.com"
+        e.suppressed*.message == ["unreachable: b.example.com"]
+    }
+
+    def 'fails when there is no source at all'() {
+        when:
+        GraalSources.fetchFromFirst([], { URL source -> } as GraalSources.Fetch, logger)
+
+        then:
+        thrown(IOException)
+    }
+
+    @Unroll
+    def 'falls back to the next source when one stalls #stall'() {
+        setup:
+        stalled.enqueue(stalledResponse)
+        healthy.enqueue(new MockResponse().setBody("graalvm"))
+        Path target = temporaryFolder.getRoot().toPath().resolve("graalvm.tar.gz")
+        GraalDownloader downloader = new GraalDownloader(1, 1024, 500, logger)
+
+        when:
+        GraalSources.fetchFromFirst(
+                [stalled.url("/graalvm.tar.gz").url(), healthy.url("/graalvm.tar.gz").url()],
+                { URL source -> downloader.download(source, target, Optional.empty()) } as GraalSources.Fetch,
+                logger)
+
+        then:
+        new String(Files.readAllBytes(target), "UTF-8") == "graalvm"
+        // the stalled source was tried first, and given up on
+        stalled.getRequestCount() >= 1
+
+        where:
+        stall                     | stalledResponse
+        "before answering"        | new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE)
+        "before sending the body" | new MockResponse().setBody("graalvm").setBodyDelay(5, TimeUnit.SECONDS)
+    }
+}
@@ -20,6 +20,7 @@ import com.palantir.gradle.graal.util.JavaVersionUtil
 import nebula.test.ProjectSpec
 import org.gradle.api.GradleException
 import spock.lang.Requires
+import spock.lang.Unroll
 
 class GradleExtensionSpec extends ProjectSpec {
     GraalExtension extension
@@ -158,4 +159,62 @@ class GradleExtensionSpec extends ProjectSpec {
         then:
         extension.getWindowsVsVarsPath().get() =~ "path"
     }
+
+    def 'extension sizes native-image to its share of the budgets'() {
+        when:
+        extension.memoryBudgetMegabytes(16384)
+        extension.processorBudget(8)
+
+        then:
+        extension.getNativeImageMemoryMegabytes().get() == 8192
+        extension.getNativeImageParallelism().get() == 4
+        extension.getNativeImageGarbageCollector().get() == "parallel"
+    }
+
+    def 'extension uses the serial collector when native-image only gets one thread'() {
+        when:
+        extension.memoryBudgetMegabytes(4096)
+        extension.processorBudget(1)
+
+        then:
+        extension.getNativeImageMemoryMegabytes().get() == 4096
+        extension.getNativeImageParallelism().get() == 1
+        extension.getNativeImageGarbageCollector().get() == "serial"
+    }
+
+    def 'extension should throw exception for an unknown garbage collector'() {
+        when:
+        extension.nativeImageGarbageCollector("zgc")
+
+        then:
+        thrown(GradleException)
+    }
+
+    def 'extension predefines a quick dev profile and an optimized release profile'() {
+        expect:
+        extension.getProfiles().getByName("dev").getOptimizationLevel().get() == "b"
+        extension.getProfiles().getByName("dev").getDebugInfo().get()
+        extension.getProfiles().getByName("release").getOptimizationLevel().get() == "2"
+        !extension.getProfiles().getByName("release").getDebugInfo().get()
+    }
+
+    def 'extension should throw exception for an unknown optimization level'() {
+        when:
+        extension.getProfiles().getByName("dev").optimizationLevel("fast")
+
+        then:
+        thrown(GradleException)
+    }
+
+    @Unroll
+    def 'extension should throw exception for #iterations benchmark iterations'() {
+        when:
+        extension.benchmarkIterations(iterations)
+
+        then:
+        thrown(GradleException)
+
+        where:
+        iterations << [0, -1]
+    }
 }
@@ -20,9 +20,11 @@ import nebula.test.IntegrationSpec
 import nebula.test.functional.ExecutionResult
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
 import org.junit.Rule
 import spock.lang.IgnoreIf
 import spock.lang.Requires
+import spock.lang.Unroll
 
 class GradleGraalPluginIntegrationSpec extends IntegrationSpec {
 
@@ -294,4 +296,364 @@ class GradleGraalPluginIntegrationSpec extends IntegrationSpec {
         result1.wasSkipped(':downloadGraalTooling') == false
         result2.wasSkipped(':downloadGraalTooling') == true
     }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'pipelined install extracts the download without keeping the archive'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               pipelinedInstall true
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result = runTasksSuccessfully('extractGraalTooling')
+
+        then:
+        result.wasSkipped(':downloadGraalTooling')
+        !result.wasSkipped(':extractGraalTooling')
+        server.getRequestCount() == 1
+        file("cacheDir/19.0.0/8/graalvm-ce-19.0.0/${binPath()}/native-image").canExecute()
+        !file("cacheDir/19.0.0/8/graalvm-ce-19.0.0-amd64.tar.gz").exists()
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'discards the archive after extraction when it is not kept'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               keepArchive false
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result1 = runTasksSuccessfully('extractGraalTooling')
+        ExecutionResult result2 = runTasksSuccessfully('extractGraalTooling')
+
+        then:
+        !result1.wasSkipped(':downloadGraalTooling')
+        !result1.wasSkipped(':extractGraalTooling')
+        file("cacheDir/19.0.0/8/graalvm-ce-19.0.0/${binPath()}/native-image").canExecute()
+        !file("cacheDir/19.0.0/8/graalvm-ce-19.0.0-amd64.tar.gz").exists()
+
+        // the completion marker stands in for the archive
+        result2.wasSkipped(':downloadGraalTooling')
+        result2.wasSkipped(':extractGraalTooling')
+        server.getRequestCount() == 1
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'restores native images built with GraalVM installed elsewhere from the build cache'() {
+        setup:
+        settingsFile << """
+            buildCache {
+                local {
+                    directory = new File(rootDir, 'build-cache')
+                }
+            }
+        """
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               outputName 'hello-world'
+            }
+        """
+        byte[] archive = fakeGraalArchive("graalvm-ce-19.0.0")
+        server.enqueue(new MockResponse().setBody(new Buffer().write(archive)))
+        server.enqueue(new MockResponse().setBody(new Buffer().write(archive)))
+
+        when:
+        ExecutionResult result1 = runTasksSuccessfully('nativeImage', '--build-cache')
+        file('build/graal/hello-world').delete()
+        file('gradle.properties').text = file('gradle.properties').text.replace("cacheDir", "relocatedCacheDir")
+        ExecutionResult result2 = runTasksSuccessfully('nativeImage', '--build-cache')
+
+        then:
+        !result1.wasSkipped(':nativeImage')
+        result2.standardOutput.contains(':nativeImage FROM-CACHE')
+        file("relocatedCacheDir/19.0.0/8/graalvm-ce-19.0.0/${binPath()}/native-image").canExecute()
+        file('build/graal/hello-world').text.trim() == 'image'
+        file('build/graal/reports/nativeImage/build-report.json').exists()
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'optimizes native images with a profile collected from an instrumented image'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               outputName 'hello-world'
+               pgo true
+               pgoWorkloadArg '--requests=1000'
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result1 = runTasksSuccessfully('nativeImage')
+        ExecutionResult result2 = runTasksSuccessfully('nativeImage')
+
+        then:
+        result1.wasExecuted(':nativeImageInstrumented')
+        result1.wasExecuted(':collectPgoProfile')
+        file('build/graal/pgo/hello-world.iprof').text.contains('--requests=1000')
+        file('build/graal/hello-world').text.trim() ==
+                "image optimized with ${file('build/graal/pgo/hello-world.iprof').absolutePath}"
+        result2.wasUpToDate(':collectPgoProfile')
+        result2.wasUpToDate(':nativeImage')
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'builds native images with the configuration written by tasks traced with the native-image agent'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            task workload(type: JavaExec) {
+                classpath = sourceSets.main.runtimeClasspath
+                mainClass = 'com.palantir.test.Main'
+            }
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               outputName 'hello-world'
+               traceWithAgent 'workload'
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result = runTasksSuccessfully('nativeImage')
+
+        then:
+        result.wasExecuted(':workload')
+        result.standardOutput.contains('hello, world!')
+        file('build/graal/agent/workload/META-INF/native-image/reflect-config.json').exists()
+        file('build/graal/hello-world').text.trim() ==
+                "image configured by ${file('build/graal/agent/workload/META-INF/native-image').absolutePath}"
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'builds each profile into its own directory, leaving the others up to date'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               outputName 'hello-world'
+               profiles {
+                   perf {
+                       optimizationLevel '3'
+                   }
+               }
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        runTasksSuccessfully('nativeImageDev', 'nativeImageRelease')
+        ExecutionResult result = runTasksSuccessfully('nativeImageRelease', 'nativeImageDev', 'nativeImagePerf')
+
+        then:
+        result.wasUpToDate(':nativeImageDev')
+        result.wasUpToDate(':nativeImageRelease')
+        result.wasExecuted(':nativeImagePerf')
+        file('build/graal/profiles/dev/hello-world').exists()
+        file('build/graal/profiles/release/hello-world').exists()
+        file('build/graal/profiles/perf/hello-world').exists()
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'builds every configured image with a single GraalVM installation'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               images {
+                   server {
+                       option '--gc=G1'
+                   }
+                   cli {
+                       mainClass 'com.palantir.test.Cli'
+                       outputName 'hello-cli'
+                   }
+               }
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result = runTasksSuccessfully('nativeImages')
+
+        then:
+        result.wasExecuted(':serverNativeImage')
+        result.wasExecuted(':cliNativeImage')
+        file('build/graal/images/server/server').exists()
+        file('build/graal/images/cli/hello-cli').exists()
+        server.getRequestCount() == 1
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'keeps the builder garbage collector when an image picks its own'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               nativeImageGarbageCollector 'parallel'
+               images {
+                   server {
+                       option '--gc=G1'
+                   }
+               }
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        runTasksSuccessfully('serverNativeImage')
+
+        then:
+        List<String> args = file('build/graal/images/server/server.args').text.trim().split(' ').toList()
+        args.contains('--gc=G1')
+        args.contains('-J-XX:+UseParallelGC')
+    }
+
+    @Unroll
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'names the native-image option #option when it cannot be parsed'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               option '${option}'
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result = runTasksWithFailure('nativeImage')
+
+        then:
+        result.standardError.contains("Cannot parse the native-image option ${option}")
+
+        where:
+        option << ['-J-Xmx', '-J-Xmx4x', '--parallelism=many', '-H:NumberOfThreads=']
+    }
+
+    @IgnoreIf({ Platform.operatingSystem() == Platform.OperatingSystem.WINDOWS })
+    def 'reuses the configuration cache for native images'() {
+        setup:
+        buildFile << """
+            apply plugin: 'com.palantir.graal'
+
+            graal {
+               graalVersion '19.0.0'
+               downloadBaseUrl '${fakeBaseUrl}'
+               mainClass 'com.palantir.test.Main'
+               outputName 'hello-world'
+            }
+        """
+        server.enqueue(new MockResponse().setBody(new Buffer().write(fakeGraalArchive("graalvm-ce-19.0.0"))))
+
+        when:
+        ExecutionResult result1 = runTasksSuccessfully('nativeImage', '--configuration-cache')
+        file('build/graal/hello-world').delete()
+        ExecutionResult result2 = runTasksSuccessfully('nativeImage', '--configuration-cache')
+
+        then:
+        result1.standardOutput.contains('Configuration cache entry stored.')
+        result2.standardOutput.contains('Reusing configuration cache.')
+        !result2.wasUpToDate(':nativeImage')
+        file('build/graal/hello-world').text.trim() == 'image'
+        server.getRequestCount() == 1
+    }
+
+    private static String binPath() {
+        return Platform.operatingSystem() == Platform.OperatingSystem.MAC ? "Contents/Home/bin" : "bin"
+    }
+
+    /** Builds a tar.gz holding a GraalVM distribution that only contains a fake native-image executable. */
+    private byte[] fakeGraalArchive(String graalDirectoryName) {
+        directory("dist/${graalDirectoryName}/${binPath()}")
+        // writes an "image" wherever native-image would, so the compile tasks can run against it
+        file("dist/${graalDirectoryName}/${binPath()}/native-image") << '''#!/bin/sh
+            for arg in "$@"; do
+                case "$arg" in
+                    -H:Path=*) path="${arg#-H:Path=}" ;;
+                    -H:Name=*) name="${arg#-H:Name=}" ;;
+                    --pgo-instrument) instrument=true ;;
+                    --pgo=*) pgo="${arg#--pgo=}" ;;
+                    -H:ConfigurationFileDirectories=*) config="${arg#-H:ConfigurationFileDirectories=}" ;;
+                esac
+            done
+            if [ -n "$path" ] && [ -n "$name" ]; then
+                # records how it was run, so specs can check the options the plugin passed
+                echo "$@" > "$path/$name.args"
+            fi
+            if [ -n "$path" ] && [ -n "$name" ] && [ -n "$instrument" ]; then
+                # an instrumented image writes its profile on exit
+                printf '#!/bin/sh\nfor a in "$@"; do case "$a" in -XX:ProfilesDumpFile=*) echo "$*" > "${a#*=}" ;; esac; done\n' \
+                    > "$path/$name"
+                chmod +x "$path/$name"
+            elif [ -n "$path" ] && [ -n "$name" ]; then
+                echo "image${pgo:+ optimized with $pgo}${config:+ configured by $config}" > "$path/$name"
+            fi
+        '''.trim()
+        file("dist/${graalDirectoryName}/${binPath()}/native-image").setExecutable(true)
+        // runs the JVM running the tests, standing in for the native-image agent by writing an empty configuration
+        file("dist/${graalDirectoryName}/${binPath()}/java") << '''#!/bin/sh
+            for arg do
+                shift
+                case "$arg" in
+                    -agentlib:native-image-agent=*) dir="${arg#*config-merge-dir=}" ;;
+                    *) set -- "$@" "$arg" ;;
+                esac
+            done
+            if [ -n "$dir" ]; then
+                mkdir -p "$dir" && echo '[]' > "$dir/reflect-config.json"
+            fi
+            exec JAVA "$@"
+        '''.trim().replace('JAVA', new File(System.getProperty('java.home'), 'bin/java').absolutePath)
+        file("dist/${graalDirectoryName}/${binPath()}/java").setExecutable(true)
+        Process tar = new ProcessBuilder("tar", "-czf", "../graalvm.tar.gz", graalDirectoryName)
+                .directory(file("dist"))
+                .start()
+        assert tar.waitFor() == 0
+        return file("graalvm.tar.gz").bytes
+    }
 }
@@ -24,4 +24,23 @@ class GradleGraalPluginProjectSpec extends PluginProjectSpec {
     String getPluginName() {
         return "com.palantir.graal"
     }
+
+    def 'configuring a project realizes none of the graal tasks'() {
+        setup:
+        List<String> realized = []
+        project.tasks.configureEach { task -> realized << task.name }
+
+        when:
+        project.apply plugin: pluginName
+        project.graal {
+            mainClass 'com.palantir.test.Main'
+            pruneClasspath true
+        }
+        project.evaluate()
+
+        then:
+        realized.intersect(['downloadGraalTooling', 'extractGraalTooling', 'pruneGraalClasspath', 'nativeImage',
+                'nativeImageInstrumented', 'collectPgoProfile', 'nativeImageDev', 'nativeImageRelease',
+                'sharedLibrary', 'benchmarkNativeImage']).isEmpty()
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Path
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class HostResourcesSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    Path root
+    Path procSelfCgroup
+
+    def setup() {
+        root = temporaryFolder.newFolder("cgroup").toPath()
+        procSelfCgroup = temporaryFolder.newFile("cgroup.proc").toPath()
+    }
+
+    def 'reads the lowest cgroup v2 limits from the process group up to the root'() {
+        setup:
+        procSelfCgroup.toFile().text = "0::/docker/build\n"
+        write("docker/build/memory.max", "4294967296")
+        write("docker/build/cpu.max", "max 100000")
+        write("docker/cpu.max", "250000 100000")
+
+        expect:
+        HostResources.cgroupMemoryBytes(procSelfCgroup, root).getAsLong() == 4294967296L
+        HostResources.cgroupProcessors(procSelfCgroup, root).getAsInt() == 3
+    }
+
+    def 'reads cgroup v1 limits, including from a namespaced root'() {
+        setup:
+        procSelfCgroup.toFile().text = "4:memory:/not/visible\n2:cpu,cpuacct:/\n"
+        write("memory/memory.limit_in_bytes", "2147483648")
+        write("cpu/cpu.cfs_quota_us", "150000")
+        write("cpu/cpu.cfs_period_us", "100000")
+
+        expect:
+        HostResources.cgroupMemoryBytes(procSelfCgroup, root).getAsLong() == 2147483648L
+        HostResources.cgroupProcessors(procSelfCgroup, root).getAsInt() == 2
+    }
+
+    def 'reports no limits for unlimited groups'() {
+        setup:
+        procSelfCgroup.toFile().text = "4:memory:/\n2:cpu,cpuacct:/\n"
+        write("memory/memory.limit_in_bytes", "9223372036854771712")
+        write("cpu/cpu.cfs_quota_us", "-1")
+        write("cpu/cpu.cfs_period_us", "100000")
+
+        expect:
+        !HostResources.cgroupMemoryBytes(procSelfCgroup, root).isPresent()
+        !HostResources.cgroupProcessors(procSelfCgroup, root).isPresent()
+    }
+
+    private void write(String path, String content) {
+        Path file = root.resolve(path)
+        file.parent.toFile().mkdirs()
+        file.toFile().text = content
+    }
+}
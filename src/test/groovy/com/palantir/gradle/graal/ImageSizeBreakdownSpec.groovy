@@ -0,0 +1,90 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import org.gradle.api.GradleException
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ImageSizeBreakdownSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'attributes code and heap sizes to classes and packages'() {
+        setup:
+        File dump = temporaryFolder.newFile("dashboard.dump")
+        dump.text = '''
+            {
+              "code-breakdown": {"code-size": [
+                {"name": "java.lang.String.indexOf(int, int)", "size": 300},
+                {"name": "java.lang.String.hashCode()", "size": 100},
+                {"name": "com.palantir.test.Main.main(String[])", "size": 50}
+              ]},
+              "heap-breakdown": {"heap-size": [
+                {"name": "java.lang.String", "size": 1000, "count": 10},
+                {"name": "byte[]", "size": 2000, "count": 20}
+              ]}
+            }
+        '''
+
+        when:
+        ImageSizeBreakdown breakdown = ImageSizeBreakdown.fromDashboard(dump, 5000)
+        breakdown.write(temporaryFolder.getRoot().toPath().resolve("reports"))
+
+        then:
+        breakdown.codeBytes == 450
+        breakdown.heapBytes == 3000
+        breakdown.byClass().collectEntries { name, sizes -> [(name): sizes.toList()] } == [
+                'byte[]': [0L, 2000L],
+                'java.lang.String': [400L, 1000L],
+                'com.palantir.test.Main': [50L, 0L]]
+        breakdown.byPackage().keySet().toList() == ['(default)', 'java.lang', 'com.palantir.test']
+        new File(temporaryFolder.getRoot(), "reports/size-by-section.csv").readLines() ==
+                ['section,bytes', 'code,450', 'heap,3000', 'other,1550', 'total,5000']
+        new File(temporaryFolder.getRoot(), "reports/size-by-package.csv").readLines()[1] == '(default),0,2000,2000'
+    }
+
+    def 'finds the class declaring a method'() {
+        expect:
+        ImageSizeBreakdown.declaringClass(method) == className
+
+        where:
+        method                                  | className
+        'java.lang.String.indexOf(int, int)'    | 'java.lang.String'
+        'com.example.Outer$Inner.run()'         | 'com.example.Outer$Inner'
+        'com.example.Main.main'                 | 'com.example.Main'
+    }
+
+    @Unroll
+    def 'refuses a size baseline of #imageBytes bytes'() {
+        setup:
+        File baseline = temporaryFolder.newFile("size-baseline.properties")
+        baseline.text = "imageBytes=${imageBytes}\n"
+
+        when:
+        NativeImageSizeReportTask.readBaseline(baseline.toPath())
+
+        then:
+        GradleException e = thrown()
+        e.message.contains("updateNativeImageSizeBaseline")
+
+        where:
+        imageBytes << [0, -1]
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.graal
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class NativeImageBuildReportSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'parses the per-phase output of GraalVM 21 and older'() {
+        when:
+        NativeImageBuildReport report = NativeImageBuildReport.parse('''\
+            [hello-world:12345]    classlist:   1,234.56 ms,  0.96 GB
+            [hello-world:12345]     analysis:   6,543.21 ms,  1.23 GB
+            [hello-world:12345]    (compile):   5,678.90 ms,  2.34 GB
+            [hello-world:12345]      compile:   8,765.43 ms,  2.34 GB
+            [hello-world:12345]      [total]:  20,123.45 ms,  2.34 GB
+            '''.stripIndent(), 1000, 21000)
+
+        then:
+        report.phaseMillis == [classlist: 1235L, analysis: 6543L, '(compile)': 5679L, compile: 8765L, total: 20123L]
+        report.peakMemoryBytes.asLong == Math.round(2.34d * 1024 * 1024 * 1024)
+        report.reachable.isEmpty()
+    }
+
+    def 'parses the numbered steps and summaries of GraalVM 22 and newer'() {
+        when:
+        NativeImageBuildReport report = NativeImageBuildReport.parse('''\
+            [1/7] Initializing...                                            (3.2s @ 0.24GB)
+            [2/7] Performing analysis...  [******]                           (15.3s @ 1.10GB)
+               3,114 (72.37%) of  4,302 classes reachable
+               4,513 (51.65%) of  8,737 fields reachable
+              13,942 (43.68%) of 31,917 methods reachable
+            [7/7] Creating image...                                          (2.1s @ 0.93GB)
+               5.00MB (37.48%) for code area:     8,224 compilation units
+               7.00MB (51.35%) for image heap:   93,562 objects and 5 resources
+               1.50MB (11.17%) for other data
+            Peak RSS: 3.15GB | CPU load: 9.52
+            '''.stripIndent(), 1000, 21000)
+
+        then:
+        report.phaseMillis == ['initializing': 3200L, 'performing analysis': 15300L, 'creating image': 2100L]
+        report.reachable == [types: 3114L, fields: 4513L, methods: 13942L]
+        report.sectionBytes == ['code area': 5242880L, 'image heap': 7340032L, 'other data': 1572864L]
+        report.peakMemoryBytes.asLong == Math.round(3.15d * 1024 * 1024 * 1024)
+    }
+
+    def 'writes json and csv reports'() {
+        setup:
+        NativeImageBuildReport report = NativeImageBuildReport.parse(
+                "[1/7] Initializing...   (3.2s @ 0.24GB)\n     1,234 reachable types   (87.2% of 1,415 total)\n",
+                1000,
+                4000)
+        File json = new File(temporaryFolder.getRoot(), "build-report.json")
+        File csv = new File(temporaryFolder.getRoot(), "build-report.csv")
+
+        when:
+        report.writeJson(json.toPath())
+        report.writeCsv(csv.toPath())
+
+        then:
+        new groovy.json.JsonSlurper().parse(json) == [
+                imageBytes: 1000,
+                totalMillis: 4000,
+                peakMemoryBytes: 257698038,
+                phaseMillis: [initializing: 3200],
+                reachable: [types: 1234],
+                sectionBytes: [:]]
+        csv.readLines().contains('phase,initializing,3200,ms')
+        csv.readLines().contains('reachable,types,1234,count')
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.palantir.gradle.graal
+
+import java.nio.file.Path
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class StartupBenchmarkSpec extends Specification {
+
+    @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'reads the peak resident set size from /proc/<pid>/status'() {
+        setup:
+        Path status = temporaryFolder.newFile("status").toPath()
+        status.toFile().text = "Name:\thello-world\nVmPeak:\t  123456 kB\nVmHWM:\t   24680 kB\nVmRSS:\t   20000 kB\n"
+
+        expect:
+        StartupBenchmark.peakRssKilobytes(status).getAsLong() == 24680
+    }
+
+    def 'reads user and system CPU time from /proc/<pid>/stat, even when the command name has spaces'() {
+        setup:
+        Path stat = temporaryFolder.newFile("stat").toPath()
+        stat.toFile().text = "4242 (hello) world) S 1 4242 4242 0 -1 4194560 1000 0 0 0 37 12 0 0 20 0 1 0 100 0 0\n"
+
+        expect:
+        StartupBenchmark.cpuMillis(stat).get() == [370L, 120L] as long[]
+    }
+
+    def 'reports nothing for processes that have exited'() {
+        expect:
+        !StartupBenchmark.peakRssKilobytes(temporaryFolder.root.toPath().resolve("missing")).isPresent()
+        !StartupBenchmark.cpuMillis(temporaryFolder.root.toPath().resolve("missing")).isPresent()
+    }
+
+    def 'computes nearest-rank percentiles'() {
+        setup:
+        List<Long> values = (1L..20L).toList()
+
+        expect:
+        StartupBenchmark.percentile(values, 50) == 10
+        StartupBenchmark.percentile(values, 90) == 18
+        StartupBenchmark.percentile(values, 99) == 20
+        StartupBenchmark.percentile([7L], 50) == 7
+    }
+
+    def 'summarizes each metric over the runs that measured it'() {
+        setup:
+        List<StartupBenchmark.Run> runs = [
+                new StartupBenchmark.Run(30, OptionalLong.of(2000), OptionalLong.empty(), OptionalLong.empty()),
+                // exited before it was first sampled
+                new StartupBenchmark.Run(5, OptionalLong.empty(), OptionalLong.empty(), OptionalLong.empty()),
+                new StartupBenchmark.Run(10, OptionalLong.of(1000), OptionalLong.empty(), OptionalLong.empty()),
+                new StartupBenchmark.Run(20, OptionalLong.of(3000), OptionalLong.empty(), OptionalLong.empty()),
+        ]
+
+        when:
+        Map<String, Map<String, Long>> summary = StartupBenchmark.summarize(runs)
+
+        then:
+        summary.keySet() == ['peakRssKilobytes', 'wallMillis'] as Set
+        summary.wallMillis == [min: 5L, p50: 10L, p90: 30L, p99: 30L, max: 30L]
+        summary.peakRssKilobytes == [min: 1000L, p50: 2000L, p90: 3000L, p99: 3000L, max: 3000L]
+    }
+}